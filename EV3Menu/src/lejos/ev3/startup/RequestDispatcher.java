@@ -0,0 +1,154 @@
+package lejos.ev3.startup;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import lejos.remote.ev3.EV3Request;
+
+/**
+ * Processes the remote requests received on a single connection. Requests for
+ * each motor and sensor port are processed in order by a worker thread for that
+ * port, so requests for different ports run concurrently and a slow request, such
+ * as a motor rotation, does not hold up the others. Any other request waits for
+ * all of the outstanding port requests to finish and is then processed by the
+ * connection thread. Requests without an id come from clients that do not support
+ * pipelining and are always processed in the order they are received.
+ */
+abstract class RequestDispatcher {
+	private static final int PORTS = 4;
+	private static final int QUEUE_SIZE = 16;
+	private static final EV3Request STOP = new EV3Request();
+	
+	private final Lane[] lanes = new Lane[PORTS*2];
+	private int active;
+	
+	/**
+	 * Process a request and send the reply, if any.
+	 * @param request the request
+	 * @throws IOException if the reply cannot be sent
+	 */
+	protected abstract void process(EV3Request request) throws IOException;
+	
+	/**
+	 * Process a request, or queue it for the worker thread of its port.
+	 * @param request the request
+	 * @throws IOException if the reply cannot be sent
+	 * @throws InterruptedException
+	 */
+	public void dispatch(EV3Request request) throws IOException, InterruptedException {
+		int lane = (request.id == 0 ? -1 : getLane(request));
+		if (lane < 0) {
+			synchronized (this) {
+				while (active > 0) wait();
+			}
+			process(request);
+		} else {
+			synchronized (this) {
+				active++;
+			}
+			if (lanes[lane] == null) {
+				lanes[lane] = new Lane();
+				lanes[lane].setDaemon(true);
+				lanes[lane].start();
+			}
+			lanes[lane].queue.put(request);
+		}
+	}
+	
+	/**
+	 * Stop the worker threads once they have finished the request they are processing.
+	 */
+	public void close() {
+		for(int i=0;i<lanes.length;i++) {
+			if (lanes[i] != null) {
+				lanes[i].queue.clear();
+				lanes[i].queue.offer(STOP);
+				lanes[i] = null;
+			}
+		}
+	}
+	
+	private synchronized void finished() {
+		if (--active == 0) notifyAll();
+	}
+	
+	/**
+	 * Return the lane used for a request: 0-3 for the motor ports, 4-7 for the
+	 * sensor ports, or -1 if the request must be processed in order with all
+	 * other requests.
+	 */
+	private static int getLane(EV3Request request) {
+		if (request.intValue < 0 || request.intValue >= PORTS) return -1;
+		switch (request.request) {
+		case OPEN_MOTOR_PORT:
+		case CLOSE_MOTOR_PORT:
+		case CONTROL_MOTOR:
+		case GET_TACHO_COUNT:
+		case RESET_TACHO_COUNT:
+		case CREATE_REGULATED_MOTOR:
+		case MOTOR_FORWARD:
+		case MOTOR_BACKWARD:
+		case MOTOR_STOP:
+		case MOTOR_FLT:
+		case MOTOR_IS_MOVING:
+		case MOTOR_GET_ROTATION_SPEED:
+		case MOTOR_GET_TACHO_COUNT:
+		case MOTOR_RESET_TACHO_COUNT:
+		case MOTOR_STOP_IMMEDIATE:
+		case MOTOR_FLT_IMMEDIATE:
+		case MOTOR_WAIT_COMPLETE:
+		case MOTOR_ROTATE:
+		case MOTOR_ROTATE_IMMEDIATE:
+		case MOTOR_ROTATE_TO:
+		case MOTOR_ROTATE_TO_IMMEDIATE:
+		case MOTOR_GET_LIMIT_ANGLE:
+		case MOTOR_GET_SPEED:
+		case MOTOR_SET_SPEED:
+		case MOTOR_GET_MAX_SPEED:
+		case MOTOR_IS_STALLED:
+		case MOTOR_SET_STALL_THRESHOLD:
+		case MOTOR_SET_ACCELERATION:
+		case MOTOR_CLOSE:
+			return request.intValue;
+		case OPEN_ANALOG_PORT:
+		case CLOSE_SENSOR_PORT:
+		case GET_PIN_6:
+		case GET_PIN_1:
+		case SET_PIN_MODE:
+		case GET_FLOATS:
+		case CREATE_SAMPLE_PROVIDER:
+		case CREATE_SAMPLE_PROVIDER_PUBLISH:
+		case SAMPLE_SIZE:
+		case FETCH_SAMPLE:
+		case CLOSE_SENSOR:
+		case SUBSCRIBE_SAMPLES:
+		case UNSUBSCRIBE_SAMPLES:
+			return PORTS + request.intValue;
+		default:
+			return -1;
+		}
+	}
+	
+	private class Lane extends Thread {
+		final ArrayBlockingQueue<EV3Request> queue = new ArrayBlockingQueue<EV3Request>(QUEUE_SIZE);
+		
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					EV3Request request = queue.take();
+					if (request == STOP) return;
+					try {
+						process(request);
+					} catch (IOException e) {
+						System.err.println("Error sending remote reply: " + e);
+					} finally {
+						finished();
+					}
+				}
+			} catch (InterruptedException e) {
+				// Connection closed
+			}
+		}
+	}
+}
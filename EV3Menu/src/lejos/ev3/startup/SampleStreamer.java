@@ -0,0 +1,87 @@
+package lejos.ev3.startup;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import lejos.remote.ev3.EV3Reply;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Samples a provider at a fixed rate and sends each sample to a remote
+ * subscriber as a reply to the subscription request. Each reply holds the
+ * sequence number of the sample in reply, the time it was taken (from
+ * System.nanoTime) in doubleReply and the sample in floats. The same reply
+ * object is used for every sample, so sending a sample does not allocate memory.
+ */
+class SampleStreamer extends Thread {
+	private final SampleProvider provider;
+	private final ObjectOutputStream os;
+	private final long period;
+	private final EV3Reply reply = new EV3Reply();
+	private volatile boolean running = true;
+	
+	/**
+	 * Create the streamer.
+	 * @param provider the provider to sample
+	 * @param rate the sample rate in Hz
+	 * @param id the id of the subscription request
+	 * @param os the stream used to send the samples
+	 */
+	SampleStreamer(SampleProvider provider, float rate, int id, ObjectOutputStream os) {
+		this.provider = provider;
+		this.os = os;
+		period = (long) (1000000000.0 / rate);
+		reply.id = id;
+		reply.floats = new float[provider.sampleSize()];
+		setDaemon(true);
+	}
+	
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				provider.fetchSample(reply.floats, 0);
+				reply.doubleReply = now;
+				os.writeObject(reply);
+				reply.reply++;
+				next += period;
+				long wait = next - System.nanoTime();
+				if (wait > 0)
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				else if (wait < -period) {
+					// Too far behind to catch up, skip the missed samples so they show as a sequence gap
+					long missed = -wait / period;
+					reply.reply += (int) missed;
+					next += missed * period;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		} catch (IOException e) {
+			System.err.println("Error streaming samples: " + e);
+		} catch (Exception e) {
+			reply.e = e;
+			try {
+				os.writeObject(reply);
+			} catch (IOException e1) {
+				System.err.println("Error streaming samples: " + e1);
+			}
+		}
+	}
+	
+	/**
+	 * Stop streaming and wait for the last sample to be sent. No samples
+	 * are sent once this method returns.
+	 */
+	void stopStreaming() {
+		running = false;
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
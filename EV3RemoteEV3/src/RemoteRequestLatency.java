@@ -0,0 +1,39 @@
+import java.io.IOException;
+
+import lejos.remote.ev3.RemoteRequestEV3;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * Compare the round trip time of a remote request using the Java object
+ * stream protocol and the compact binary protocol.
+ */
+public class RemoteRequestLatency {
+	private static final int COUNT = 500;
+
+	public static void main(String[] args) throws IOException {
+		String host = (args.length > 0 ? args[0] : "192.168.0.9");
+		
+		time(host, false);
+		time(host, true);
+	}
+	
+	private static void time(String host, boolean binary) throws IOException {
+		RemoteRequestEV3 ev3 = new RemoteRequestEV3(host, binary);
+		RegulatedMotor m = ev3.createRegulatedMotor("A", 'L');
+		
+		// warm up
+		for(int i=0;i<50;i++) m.getTachoCount();
+		
+		long start = System.nanoTime();
+		for(int i=0;i<COUNT;i++) {
+			m.getTachoCount();
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		System.out.println((binary ? "Binary" : "Object") + " protocol: " + (elapsed/COUNT/1000) + "us per request");
+		
+		m.close();
+		ev3.disConnect();
+	}
+
+}
@@ -79,6 +79,24 @@ public class BrickPiUARTPort extends BrickPiIOPort implements UARTPort {
 		
 	}
 
+	@Override
+	public int getDataSequence() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
+	@Override
+	public int readBytes(byte[] vals, int offset, int len) {
+		getBytes(vals, offset, len);
+		return getDataSequence();
+	}
+
+	@Override
+	public int readShorts(short[] vals, int offset, int len) {
+		getShorts(vals, offset, len);
+		return getDataSequence();
+	}
+
 	@Override
 	public String getModeName(int mode) {
 		// TODO Auto-generated method stub
@@ -28,6 +28,8 @@ public class Font implements Serializable
     private static Font small;
     private static Font large;
     private static Font medium;
+    // Glyphs expanded to one int per scan line, created when first used
+    private transient int[] glyphRows;
 
     // The folowing classes contain the glyph bitmaps for the additonal fonts.
     // They are wrapped inside of classes to allow the linker to eliminate the
@@ -2301,4 +2303,35 @@ public class Font implements Serializable
             large = new LargeFont();
         return large;
     }
+
+    /**
+     * Return the glyphs expanded to one int per scan line, to allow text to be
+     * drawn without extracting each pixel from the glyph map. The rows of glyph
+     * g start at index g*height, bit 0 of each row is the left most pixel. The
+     * expanded glyphs are created the first time they are requested.
+     * @return the expanded glyphs or null if the glyphs are too wide
+     */
+    public int[] getGlyphRows()
+    {
+        int[] rows = glyphRows;
+        if (rows == null && glyphWidth <= 24)
+        {
+            int span = (glyphWidth*glyphCount + 7)/8;
+            rows = new int[glyphCount*height];
+            for (int g = 0; g < glyphCount; g++)
+                for (int y = 0; y < height; y++)
+                {
+                    int bits = 0;
+                    for (int x = 0; x < glyphWidth; x++)
+                    {
+                        int px = g*glyphWidth + x;
+                        if ((glyphs[y*span + (px >> 3)] & (1 << (px & 7))) != 0)
+                            bits |= 1 << x;
+                    }
+                    rows[g*height + y] = bits;
+                }
+            glyphRows = rows;
+        }
+        return rows;
+    }
 }
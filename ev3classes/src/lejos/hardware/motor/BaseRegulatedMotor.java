@@ -426,4 +426,30 @@ public abstract class BaseRegulatedMotor extends Device implements RegulatedMoto
     {
         reg.endSynchronization(true);        
     }
+
+    /**
+     * Add a set point to the trajectory followed by the motor. The motor moves
+     * through the set points without stopping between them, so a sequence of
+     * set points can be used to follow a smooth path. When the last set point
+     * is reached the motor stops. Set points added between startSynchronization
+     * and endSynchronization start to be followed when the synchronization ends.
+     * Any other move abandons the trajectory.
+     * @param position position in degrees, as returned by getPosition
+     * @param velocity velocity in degrees per second at the set point
+     * @param time time in ms to reach the set point from the previous one
+     * @return true if the set point was queued, false if the queue is full
+     */
+    public boolean addSetPoint(float position, float velocity, int time)
+    {
+        return reg.addSetPoint(position, velocity, time);
+    }
+
+    /**
+     * Return the number of set points that are waiting to be followed.
+     * @return the number of set points
+     */
+    public int getSetPointCount()
+    {
+        return reg.getSetPointCount();
+    }
 }
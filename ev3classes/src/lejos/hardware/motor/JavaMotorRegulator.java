@@ -1,9 +1,10 @@
 package lejos.hardware.motor;
 
+import java.util.concurrent.locks.LockSupport;
+
 import lejos.hardware.port.TachoMotorPort;
 import lejos.robotics.RegulatedMotor;
 import lejos.robotics.RegulatedMotorListener;
-import lejos.utility.Delay;
 
 /**
  * Java based regulator 
@@ -24,8 +25,11 @@ import lejos.utility.Delay;
  *
  * Once the motor stops, the final position is held using the same PID control
  * mechanism (with slightly different parameters), as that used for movement.
- * 
- * TODO: Should we add synchronization to this?
+ *
+ * Moves issued to a set of synchronized motors between startSynchronization
+ * and endSynchronization are queued, and then all started together before
+ * the next cycle of the controller. While the moves are being queued the
+ * motors report the state they had when the synchronization started.
  **/
 public class JavaMotorRegulator implements MotorRegulator
 {
@@ -88,8 +92,31 @@ public class JavaMotorRegulator implements MotorRegulator
     boolean stalled;
     int stallCnt = 0;
     protected int stallLimit = 50;
-    protected int stallTime = 1000;
+    protected int stallTime = 4000;
     protected TachoMotorPort tachoPort;
+    protected final JavaMotorRegulator[] syncThis = new JavaMotorRegulator[] {this};
+    protected volatile JavaMotorRegulator[] syncWith = syncThis;
+    // Queued operations and frozen state used during synchronization. The frozen
+    // state is set before syncActive, which is read without holding the lock.
+    volatile boolean syncActive = false;
+    boolean syncMove = false;
+    boolean syncAdjustSpeed = false;
+    boolean syncAdjustAcc = false;
+    float syncSpeed;
+    int syncAcc;
+    int syncLimit;
+    boolean syncHold;
+    int syncTachoCnt;
+    float syncPosition;
+    float syncVelocity;
+    boolean syncMoving;
+    boolean syncStalled;
+    boolean syncSetPoints = false;
+    // Trajectory made up of queued set points
+    static final int SET_POINTS = 32;
+    protected final SetPointQueue setPoints = new SetPointQueue(SET_POINTS);
+    boolean streaming = false;
+    int acceleration = 6000;
     protected static final Controller cont = new Controller();
     static {
         // Start the single controller thread
@@ -114,6 +141,16 @@ public class JavaMotorRegulator implements MotorRegulator
     
     
     public int getTachoCount()
+    {
+        if (syncActive) return syncTachoCnt;
+        return readTachoCount();
+    }
+
+    /**
+     * Read the tachometer, ignoring any synchronization that is in progress.
+     * @return the current tacho count
+     */
+    private int readTachoCount()
     {
         return tachoPort.getTachoCount() - zeroTachoCnt;
     }
@@ -127,18 +164,85 @@ public class JavaMotorRegulator implements MotorRegulator
 
     public boolean isMoving()
     {
+        if (syncActive) return syncMoving;
         return moving;
     }
     
     public float getCurrentVelocity()
     {
+        if (syncActive) return syncVelocity;
         return curVelocity;
     }
     
     public void setStallThreshold(int error, int time)
     {
         this.stallLimit = error;
-        this.stallTime = time/Controller.UPDATE_PERIOD;
+        this.stallTime = time;
+    }
+
+    /**
+     * Set the period of the regulation loop shared by all of the Java
+     * regulated motors. A shorter period gives tighter regulation at the cost
+     * of more CPU time. The default is 4ms.
+     * @param period the period in ms
+     */
+    public static void setUpdatePeriod(int period)
+    {
+        if (period < Controller.MIN_PERIOD || period > Controller.MAX_PERIOD)
+            throw new IllegalArgumentException("Invalid update period");
+        cont.period = period*1000000L;
+    }
+
+    /**
+     * Return the period of the regulation loop.
+     * @return the period in ms
+     */
+    public static int getUpdatePeriod()
+    {
+        return (int)(cont.period/1000000);
+    }
+
+    /**
+     * Return a histogram of how late each cycle of the regulation loop
+     * started. Bucket 0 counts the cycles that started less than 16us after
+     * they were due, bucket n counts those that started between 8*2^n and
+     * 16*2^n us late, the last bucket also counts any cycles that were later
+     * than that.
+     * @return a copy of the histogram
+     */
+    public static int[] getJitterHistogram()
+    {
+        return cont.jitter.clone();
+    }
+
+    /**
+     * Return a histogram of the overruns of the regulation loop. An overrun
+     * happens when a cycle takes so long that the next one is missed, the
+     * missed cycles are skipped. Bucket n counts the overruns in which n+1
+     * cycles were skipped, the last bucket also counts any longer overruns.
+     * @return a copy of the histogram
+     */
+    public static int[] getOverrunHistogram()
+    {
+        return cont.overruns.clone();
+    }
+
+    /**
+     * Return the number of cycles run by the regulation loop.
+     * @return the cycle count
+     */
+    public static int getCycleCount()
+    {
+        return cont.cycles;
+    }
+
+    /**
+     * Reset the cycle count and the jitter and overrun histograms. The
+     * statistics are cleared at the start of the next cycle.
+     */
+    public static void resetStatistics()
+    {
+        cont.clearStats = true;
     }
     
     
@@ -153,9 +257,9 @@ public class JavaMotorRegulator implements MotorRegulator
         if (listener != null)
         {
             if (velocity == 0)
-                listener.rotationStopped(motor, getTachoCount(), stalled, System.currentTimeMillis());
+                listener.rotationStopped(motor, readTachoCount(), stalled, System.currentTimeMillis());
             else
-                listener.rotationStarted(motor, getTachoCount(), false, System.currentTimeMillis());
+                listener.rotationStarted(motor, readTachoCount(), false, System.currentTimeMillis());
         }
     }
     
@@ -194,9 +298,16 @@ public class JavaMotorRegulator implements MotorRegulator
 
 
     @Override
-    public void waitComplete()
+    public synchronized void waitComplete()
     {
-        waitStop();
+        while (moving && !syncActive)
+            try
+            {
+                wait();
+            } catch (InterruptedException e)
+            {
+                return;
+            }
     }
 
 
@@ -210,6 +321,7 @@ public class JavaMotorRegulator implements MotorRegulator
     @Override
     public boolean isStalled()
     {
+        if (syncActive) return syncStalled;
         return stalled;
     }
 
@@ -219,7 +331,8 @@ public class JavaMotorRegulator implements MotorRegulator
      */
     protected synchronized void reset()
     {
-        curCnt = tachoCnt = getTachoCount();
+        // getTachoCount returns the frozen count during synchronization
+        curCnt = tachoCnt = readTachoCount();
         baseTime = now = System.currentTimeMillis();
     }
 
@@ -277,6 +390,7 @@ public class JavaMotorRegulator implements MotorRegulator
      */
     synchronized public float getPosition()
     {
+        if (syncActive) return syncPosition;
         if (!active)
         {
             cont.addMotor(this);
@@ -298,6 +412,25 @@ public class JavaMotorRegulator implements MotorRegulator
      */
     synchronized public void newMove(float speed, int acceleration, int limit, boolean hold, boolean waitComplete)
     {
+        if (syncActive)
+        {
+            // queue the move until the synchronization ends
+            syncSpeed = speed;
+            syncAcc = acceleration;
+            syncLimit = limit;
+            syncHold = hold;
+            syncMove = true;
+            syncAdjustSpeed = syncAdjustAcc = false;
+            syncSetPoints = false;
+            return;
+        }
+        if (streaming)
+        {
+            // abandon the trajectory, the move starts from the current model state
+            streaming = false;
+            setPoints.clear();
+        }
+        this.acceleration = acceleration;
         if (!active)
         {
             cont.addMotor(this);
@@ -352,6 +485,17 @@ public class JavaMotorRegulator implements MotorRegulator
      */
     public synchronized void adjustSpeed(float newSpeed)
     {
+        if (syncActive)
+        {
+            if (!syncMove || syncSpeed != 0)
+            {
+                syncSpeed = newSpeed;
+                syncAdjustSpeed = !syncMove;
+            }
+            return;
+        }
+        if (streaming)
+            return;
         if (curTargetVelocity != 0)
         {
             startSubMove(newSpeed, curAcc, curLimit, curHold);
@@ -366,6 +510,15 @@ public class JavaMotorRegulator implements MotorRegulator
      */
     public synchronized void adjustAcceleration(int newAcc)
     {
+        if (syncActive)
+        {
+            syncAcc = newAcc;
+            syncAdjustAcc = !syncMove;
+            return;
+        }
+        acceleration = newAcc;
+        if (streaming)
+            return;
         if (curTargetVelocity != 0)
         {
             startSubMove(Math.abs(curTargetVelocity), newAcc, curLimit, curHold);
@@ -386,6 +539,8 @@ public class JavaMotorRegulator implements MotorRegulator
         if (stalled)
         {
             // stalled try and maintain current position
+            streaming = false;
+            setPoints.clear();
             reset();
             curVelocity = 0;
             stallCnt = 0;
@@ -408,10 +563,14 @@ public class JavaMotorRegulator implements MotorRegulator
     {
         float error;
         now += delta;
+        if (streaming)
+            followSetPoints();
         long elapsed = now - baseTime;
         if (moving)
         {
-            if (elapsed < accTime)
+            if (streaming)
+                error = curCnt - tachoCnt;
+            else if (elapsed < accTime)
             {
                 // We are still accelerating, calculate new position
                 curVelocity = baseVelocity + curAcc * elapsed / (1000);
@@ -433,7 +592,8 @@ public class JavaMotorRegulator implements MotorRegulator
             if (Math.abs(error) > stallLimit)
             {
                 baseTime += delta;
-                if (stallCnt++ > stallTime) endMove(true);
+                stallCnt += delta;
+                if (stallCnt > stallTime) endMove(true);
             }
             else
             {
@@ -464,6 +624,60 @@ public class JavaMotorRegulator implements MotorRegulator
         }
     }// end run
 
+    /**
+     * Start to follow the queued set points from the current model state.
+     */
+    private void startSetPoints()
+    {
+        if (!active)
+        {
+            cont.addMotor(this);
+            active = true;
+        }
+        if (!setPoints.next(curCnt, curVelocity))
+            return;
+        pending = false;
+        stalled = false;
+        checkLimit = false;
+        curHold = true;
+        streaming = true;
+        baseTime = now;
+        if (!moving)
+        {
+            moving = true;
+            if (listener != null)
+                listener.rotationStarted(motor, getTachoCount(), false, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Move the model along the queued set points. When the last one has been
+     * reached the motor is brought to a stop.
+     */
+    private void followSetPoints()
+    {
+        long elapsed = now - baseTime;
+        while (elapsed >= setPoints.getDuration())
+        {
+            curCnt = setPoints.getEndPosition();
+            curVelocity = setPoints.getEndVelocity();
+            baseTime += setPoints.getDuration();
+            elapsed = now - baseTime;
+            if (!setPoints.next(curCnt, curVelocity))
+            {
+                streaming = false;
+                baseTime = now;
+                if (curVelocity == 0)
+                    endMove(false);
+                else
+                    startSubMove(0, acceleration, NO_LIMIT, curHold);
+                return;
+            }
+        }
+        curCnt = setPoints.getPosition(elapsed);
+        curVelocity = setPoints.getVelocity(elapsed);
+    }
+
     /**
      * helper method for velocity regulation.
      * calculates power from error using double smoothing and PID like
@@ -499,97 +713,258 @@ public class JavaMotorRegulator implements MotorRegulator
      * as closely synchronized as possible tach counts for all motors are gathered
      * as close as possible to the same time. Similarly new power levels for each
      * motor are also set at the same time.
+     *
+     * Cycles are scheduled against a monotonic clock at fixed multiples of the
+     * period, so a late cycle does not delay those that follow it. If a cycle
+     * overruns the missed cycles are skipped rather than being run back to back,
+     * the regulators are passed the actual time that has elapsed.
      */
     protected static class Controller extends Thread
     {
+        // The period (in ms) that the PID constants were tuned for
         static final int UPDATE_PERIOD = 4;
-        JavaMotorRegulator [] activeMotors = new JavaMotorRegulator[0];
+        static final int MIN_PERIOD = 1;
+        static final int MAX_PERIOD = 100;
+        static final int JITTER_BUCKETS = 16;
+        static final int OVERRUN_BUCKETS = 8;
+        // Changes to the set of active motors are made holding motorsLock rather than
+        // the controller lock, and no other lock is taken while holding it. Motors add
+        // and remove themselves while holding their own lock, the controller locks the
+        // motors while holding its own lock, so the two must not be the same.
+        final Object motorsLock = new Object();
+        volatile JavaMotorRegulator [] activeMotors = new JavaMotorRegulator[0];
         boolean running = false;
+        volatile long period = UPDATE_PERIOD*1000000L;
+        final int[] jitter = new int[JITTER_BUCKETS];
+        final int[] overruns = new int[OVERRUN_BUCKETS];
+        volatile int cycles;
+        volatile boolean clearStats = false;
     
         /**
          * Add a motor to the set of active motors.
          * @param m
          */
-        synchronized void addMotor(JavaMotorRegulator m)
+        void addMotor(JavaMotorRegulator m)
         {
-            JavaMotorRegulator [] newMotors = new JavaMotorRegulator[activeMotors.length+1];
-            System.arraycopy(activeMotors, 0, newMotors, 0, activeMotors.length);
-            newMotors[activeMotors.length] = m;
             m.reset();
-            activeMotors = newMotors;
+            synchronized (motorsLock)
+            {
+                JavaMotorRegulator [] newMotors = new JavaMotorRegulator[activeMotors.length+1];
+                System.arraycopy(activeMotors, 0, newMotors, 0, activeMotors.length);
+                newMotors[activeMotors.length] = m;
+                activeMotors = newMotors;
+            }
         }
     
         /**
          * Remove a motor from the set of active motors.
          * @param m
          */
-        synchronized void removeMotor(JavaMotorRegulator m)
+        void removeMotor(JavaMotorRegulator m)
         {
             m.tachoPort.controlMotor(0, TachoMotorPort.FLOAT);
-            JavaMotorRegulator [] newMotors = new JavaMotorRegulator[activeMotors.length-1];
-            int j = 0;
-            for(int i = 0; i < activeMotors.length; i++)
-                if (activeMotors[i] != m)
-                    newMotors[j++] = activeMotors[i];
-            activeMotors = newMotors;
+            synchronized (motorsLock)
+            {
+                JavaMotorRegulator [] newMotors = new JavaMotorRegulator[activeMotors.length-1];
+                int j = 0;
+                for(int i = 0; i < activeMotors.length; i++)
+                    if (activeMotors[i] != m)
+                        newMotors[j++] = activeMotors[i];
+                activeMotors = newMotors;
+            }
         }
         
         synchronized void shutdown()
         {
             // Shutdown all of the motors and prevent them from running
             running = false;
-            for(JavaMotorRegulator m : activeMotors)
+            JavaMotorRegulator [] motors;
+            synchronized (motorsLock)
+            {
+                motors = activeMotors;
+                activeMotors = new JavaMotorRegulator[0];
+            }
+            for(JavaMotorRegulator m : motors)
                 m.tachoPort.controlMotor(0, TachoMotorPort.FLOAT);
-            activeMotors = new JavaMotorRegulator[0];
         }
     
     
+        /**
+         * Record how late a cycle started.
+         * @param late the time in ns
+         */
+        private void recordJitter(long late)
+        {
+            int us = (int)Math.min(late/1000, Integer.MAX_VALUE);
+            int bucket = (us < 16 ? 0 : 28 - Integer.numberOfLeadingZeros(us));
+            jitter[bucket < JITTER_BUCKETS ? bucket : JITTER_BUCKETS - 1]++;
+        }
+
         @Override
         public void run()
         {
             running = true;
-            long now = System.currentTimeMillis();
+            // next is when the next cycle is due, tick is the time the regulators have reached
+            long next = System.nanoTime();
+            long tick = next;
             while(running)
             {
-                long delta;
+                long start = System.nanoTime();
+                if (clearStats)
+                {
+                    clearStats = false;
+                    cycles = 0;
+                    for(int i = 0; i < JITTER_BUCKETS; i++)
+                        jitter[i] = 0;
+                    for(int i = 0; i < OVERRUN_BUCKETS; i++)
+                        overruns[i] = 0;
+                }
+                recordJitter(start - next);
+                cycles++;
                 synchronized (this)
                 {
-                    delta = System.currentTimeMillis() - now;
+                    // The regulators work in whole ms, carry any remainder to the next cycle
+                    long delta = (start - tick)/1000000;
+                    tick += delta*1000000;
                     JavaMotorRegulator [] motors = activeMotors;
-                    now += delta;
-                    for(JavaMotorRegulator m : motors)
-                        m.tachoCnt = m.tachoPort.getTachoCount() - m.zeroTachoCnt;
-                    for(JavaMotorRegulator m : motors)
-                        m.regulateMotor(delta);
-                    for(JavaMotorRegulator m : motors)
-                        m.tachoPort.controlMotor(m.power, m.mode);
+                    if (delta > 0)
+                    {
+                        for(JavaMotorRegulator m : motors)
+                            m.tachoCnt = m.tachoPort.getTachoCount() - m.zeroTachoCnt;
+                        for(JavaMotorRegulator m : motors)
+                            m.regulateMotor(delta);
+                        for(JavaMotorRegulator m : motors)
+                            m.tachoPort.controlMotor(m.power, m.mode);
+                    }
+                }
+                long p = period;
+                next += p;
+                long late = System.nanoTime() - next;
+                if (late >= 0)
+                {
+                    // overrun, skip the cycles we have missed
+                    long missed = late/p + 1;
+                    next += missed*p;
+                    overruns[(int)Math.min(missed, OVERRUN_BUCKETS) - 1]++;
                 }
-                Delay.msDelay(now + UPDATE_PERIOD - System.currentTimeMillis());
+                long wait;
+                while ((wait = next - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(wait);
             }   // end keep going loop
         }
     }
 
 
+    @Override
+    public synchronized boolean addSetPoint(float position, float velocity, int time)
+    {
+        if (!setPoints.add(position, velocity, time))
+            return false;
+        if (syncActive)
+        {
+            // start to follow the set points when the synchronization ends
+            syncSetPoints = true;
+            syncMove = syncAdjustSpeed = syncAdjustAcc = false;
+        }
+        else if (!streaming)
+            startSetPoints();
+        return true;
+    }
+
+
+    @Override
+    public int getSetPointCount()
+    {
+        return setPoints.size();
+    }
+
+
+    /**
+     * Freeze the state of this motor and start queueing operations.
+     */
+    private synchronized void startSync()
+    {
+        syncTachoCnt = getTachoCount();
+        syncPosition = curCnt;
+        syncVelocity = curVelocity;
+        syncMoving = moving;
+        syncStalled = stalled;
+        syncActive = true;
+    }
+
+
+    /**
+     * Stop queueing operations and run any that have been queued.
+     */
+    private synchronized void endSync()
+    {
+        syncActive = false;
+        if (syncMove)
+            newMove(syncSpeed, syncAcc, syncLimit, syncHold, false);
+        else
+        {
+            if (syncAdjustSpeed)
+                adjustSpeed(syncSpeed);
+            if (syncAdjustAcc)
+                adjustAcceleration(syncAcc);
+        }
+        if (syncSetPoints && !streaming)
+            startSetPoints();
+        syncMove = syncAdjustSpeed = syncAdjustAcc = syncSetPoints = false;
+    }
+
+
+    /*
+     * The synchronization methods do not lock this motor. They lock the controller
+     * and then each motor in turn, the same order as the controller itself uses.
+     */
     @Override
     public void startSynchronization()
     {
-        // TODO Auto-generated method stub
-        
+        JavaMotorRegulator[] sl = syncWith;
+        // Hold the controller so all of the motors are frozen in the same cycle
+        synchronized(cont)
+        {
+            for(JavaMotorRegulator r : sl)
+                r.startSync();
+        }
     }
 
 
     @Override
-    public void endSynchronization(boolean b)
+    public void endSynchronization(boolean immRet)
     {
-        // TODO Auto-generated method stub
-        
+        JavaMotorRegulator[] sl = syncWith;
+        // Start all of the queued operations before the next controller cycle
+        synchronized(cont)
+        {
+            for(JavaMotorRegulator r : sl)
+                r.endSync();
+        }
+        // Wait without holding any lock so the controller can keep running
+        if (!immRet)
+            for(JavaMotorRegulator r : sl)
+                r.waitComplete();
     }
 
 
     @Override
-    public void synchronizeWith(MotorRegulator[] rl)
+    public synchronized void synchronizeWith(MotorRegulator[] syncList)
     {
-        // TODO Auto-generated method stub
-        
+        // validate the list
+        for(MotorRegulator r : syncList)
+        {
+            if (! (r instanceof JavaMotorRegulator))
+                throw new IllegalArgumentException("Invalid regulator class - is it remote?");
+            if (r == this)
+                throw new IllegalArgumentException("Can't synchronize with self");
+        }
+        // create new array and add self into it
+        JavaMotorRegulator[] sl = new JavaMotorRegulator[syncList.length+1];
+        int i = 1;
+        for(MotorRegulator r : syncList)
+            sl[i++] = (JavaMotorRegulator)r;
+        sl[0] = this;
+        this.syncWith = sl;
     }
 }
\ No newline at end of file
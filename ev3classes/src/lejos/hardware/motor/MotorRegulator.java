@@ -142,6 +142,28 @@ public interface MotorRegulator
      */
     public void synchronizeWith(MotorRegulator[] rl);
 
+    /**
+     * Add a set point to the trajectory followed by the motor. If the motor is
+     * not already following a trajectory it starts moving to the set point
+     * straight away, from its current position and velocity. The motor moves
+     * from one set point to the next without stopping. When the last set point
+     * has been reached the motor is stopped, using the current acceleration,
+     * and then holds its position. Any other move operation abandons the
+     * trajectory and removes the queued set points.
+     * @param position position in degrees, as returned by getPosition
+     * @param velocity velocity in degrees per second at the set point
+     * @param time time in ms to reach the set point from the previous one
+     * @return true if the set point was queued, false if the queue is full
+     */
+    public boolean addSetPoint(float position, float velocity, int time);
+
+    /**
+     * Return the number of set points that are waiting to be followed, not
+     * including the one the motor is currently moving to.
+     * @return the number of set points
+     */
+    public int getSetPointCount();
+
 
 }
 
@@ -0,0 +1,175 @@
+package lejos.hardware.motor;
+
+/**
+ * A queue of set points used by a motor regulator to follow a trajectory.
+ * Each set point gives a position and velocity for the motor and the time
+ * in ms the motor should take to reach it from the previous set point.
+ *
+ * The regulator removes the set points one at a time and moves between them
+ * in two halves. In the first half the velocity changes at a constant rate
+ * to a mid velocity, in the second half it changes at a constant rate to the
+ * velocity of the set point. The mid velocity is chosen so that the motor
+ * arrives at the set point on time. The velocity is continuous from one set
+ * point to the next, so the motor does not stop between them.
+ *
+ * The queue has a fixed size and does not allocate memory once created. Set
+ * points may be added by one thread while the regulator follows them in
+ * another.
+ */
+public class SetPointQueue
+{
+    protected final float[] position;
+    protected final float[] velocity;
+    protected final int[] time;
+    protected int head = 0;
+    protected int count = 0;
+    // The segment currently being followed
+    protected float startPosition;
+    protected float startVelocity;
+    protected float midVelocity;
+    protected float endPosition;
+    protected float endVelocity;
+    protected float acc1;
+    protected float acc2;
+    protected int duration;
+
+    /**
+     * Create a new queue
+     * @param capacity maximum number of set points held
+     */
+    public SetPointQueue(int capacity)
+    {
+        position = new float[capacity];
+        velocity = new float[capacity];
+        time = new int[capacity];
+    }
+
+    /**
+     * Add a set point to the end of the queue.
+     * @param position position in degrees
+     * @param velocity velocity in degrees per second
+     * @param time time in ms to reach the set point from the previous one
+     * @return true if the set point was added, false if the queue is full
+     */
+    public synchronized boolean add(float position, float velocity, int time)
+    {
+        if (time <= 0)
+            throw new IllegalArgumentException("Invalid time");
+        if (count >= this.position.length)
+            return false;
+        int i = (head + count) % this.position.length;
+        this.position[i] = position;
+        this.velocity[i] = velocity;
+        this.time[i] = time;
+        count++;
+        return true;
+    }
+
+    /**
+     * Return the number of set points in the queue.
+     * @return set point count
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Remove all of the set points from the queue.
+     */
+    public synchronized void clear()
+    {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Remove the next set point from the queue and start a new segment that
+     * moves to it from the given position and velocity.
+     * @param curPosition position at the start of the segment
+     * @param curVelocity velocity at the start of the segment
+     * @return false if the queue is empty
+     */
+    public synchronized boolean next(float curPosition, float curVelocity)
+    {
+        if (count <= 0)
+            return false;
+        startPosition = curPosition;
+        startVelocity = curVelocity;
+        endPosition = position[head];
+        endVelocity = velocity[head];
+        duration = time[head];
+        head = (head + 1) % position.length;
+        count--;
+        float t = duration/1000f;
+        midVelocity = 2*(endPosition - startPosition)/t - (startVelocity + endVelocity)/2;
+        acc1 = (midVelocity - startVelocity)*2/t;
+        acc2 = (endVelocity - midVelocity)*2/t;
+        return true;
+    }
+
+    /**
+     * Return the length of the current segment.
+     * @return time in ms
+     */
+    public int getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * Return the velocity half way through the current segment.
+     * @return velocity in degrees per second
+     */
+    public float getMidVelocity()
+    {
+        return midVelocity;
+    }
+
+    /**
+     * Return the position at the end of the current segment.
+     * @return position in degrees
+     */
+    public float getEndPosition()
+    {
+        return endPosition;
+    }
+
+    /**
+     * Return the velocity at the end of the current segment.
+     * @return velocity in degrees per second
+     */
+    public float getEndVelocity()
+    {
+        return endVelocity;
+    }
+
+    /**
+     * Return the position at a point in the current segment.
+     * @param elapsed time in ms since the start of the segment
+     * @return position in degrees
+     */
+    public float getPosition(float elapsed)
+    {
+        float h = duration/2000f;
+        float t = Math.max(0, Math.min(elapsed, duration))/1000f;
+        if (t <= h)
+            return startPosition + startVelocity*t + acc1*t*t/2;
+        t -= h;
+        return startPosition + (startVelocity + midVelocity)*h/2 + midVelocity*t + acc2*t*t/2;
+    }
+
+    /**
+     * Return the velocity at a point in the current segment.
+     * @param elapsed time in ms since the start of the segment
+     * @return velocity in degrees per second
+     */
+    public float getVelocity(float elapsed)
+    {
+        float h = duration/2000f;
+        float t = Math.max(0, Math.min(elapsed, duration))/1000f;
+        if (t <= h)
+            return startVelocity + acc1*t;
+        return midVelocity + acc2*(t - h);
+    }
+}
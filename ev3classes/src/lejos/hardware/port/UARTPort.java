@@ -33,6 +33,41 @@ public interface UARTPort extends IOPort, BasicSensorPort
      */
     public void getShorts(short [] vals, int offset, int len);
 
+    /**
+     * Return the sequence number of the most recent data set read from the device.
+     * The value changes every time the device delivers new data, it wraps around
+     * and so should only be compared for equality with a previous value.<p>
+     * On the EV3 the sequence number is the index of the data set in the buffer
+     * the kernel keeps for the port, so it wraps after 300 data sets. A caller that
+     * does not check the sequence again until exactly a multiple of 300 data sets
+     * have arrived will see the same value and can not tell that the data is new.
+     * Callers must check more often than the buffer wraps.
+     * @return the current data sequence number
+     */
+    public int getDataSequence();
+
+    /**
+     * read a number of bytes from the device as a single consistent data set. If
+     * the device delivers new data while it is being copied the read is repeated,
+     * the data returned is never a mixture of two data sets.
+     * @param vals byte array to accept the data
+     * @param offset offset at which to store the data
+     * @param len number of bytes to read
+     * @return the data sequence number of the data set that was read
+     */
+    public int readBytes(byte [] vals, int offset, int len);
+
+    /**
+     * read a number of shorts from the device as a single consistent data set. If
+     * the device delivers new data while it is being copied the read is repeated,
+     * the data returned is never a mixture of two data sets.
+     * @param vals short array to accept the data
+     * @param offset offset at which to store the data
+     * @param len number of shorts to read
+     * @return the data sequence number of the data set that was read
+     */
+    public int readShorts(short [] vals, int offset, int len);
+
     /**
      * Get the string name of the specified mode.<p><p>
      * TODO: Make other mode data available.
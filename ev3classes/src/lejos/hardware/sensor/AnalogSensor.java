@@ -87,6 +87,31 @@ public class AnalogSensor extends BaseSensor implements SensorConstants
             Delay.msDelay(switchDelay);
         }
     }
+
+    /**
+     * Read the voltage on pin 1 of the sensor and record it as a new sample.
+     * The kernel samples the sensor continuously, so each read is new data.
+     * @return the voltage
+     */
+    protected float readPin1()
+    {
+        float val = port.getPin1();
+        newSample(System.nanoTime());
+        return val;
+    }
+
+    /**
+     * Read the voltage on pin 6 of the sensor and record it as a new sample.
+     * The kernel samples the sensor continuously, so each read is new data.
+     * @return the voltage
+     */
+    protected float readPin6()
+    {
+        float val = port.getPin6();
+        newSample(System.nanoTime());
+        return val;
+    }
+
     //TODO: Add a switchPinMode or whatever method for use by EV3 sensors. At the moment
     // there are no EV3 analog sensors that are controlled by pin settings.
     
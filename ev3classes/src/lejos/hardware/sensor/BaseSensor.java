@@ -3,6 +3,7 @@ package lejos.hardware.sensor;
 import java.util.ArrayList;
 
 import lejos.hardware.Device;
+import lejos.robotics.TimestampedSampleProvider;
 
 
 public class BaseSensor extends Device implements SensorModes
@@ -10,6 +11,39 @@ public class BaseSensor extends Device implements SensorModes
     protected int currentMode = 0;
     protected SensorMode[] modes;
     ArrayList<String> modeList;
+    protected long sampleTime;
+    protected int sampleSequence;
+
+    /**
+     * Base class for sensor modes that report when their samples were acquired.
+     * The time and sequence number are those of the sensor, they are updated
+     * by the methods of the sensor that read new data from the device, so a
+     * mode should only extend this class if it reads its data using them.
+     */
+    protected abstract class TimestampedMode implements SensorMode, TimestampedSampleProvider
+    {
+        @Override
+        public long getSampleTime()
+        {
+            return sampleTime;
+        }
+
+        @Override
+        public int getSampleSequence()
+        {
+            return sampleSequence;
+        }
+    }
+
+    /**
+     * Record that a new sample has been read from the device.
+     * @param time The time the sample was acquired, in nanoseconds
+     */
+    protected void newSample(long time)
+    {
+        sampleTime = time;
+        sampleSequence++;
+    }
 
     /**
      * Define the set of modes to be made available for this sensor.
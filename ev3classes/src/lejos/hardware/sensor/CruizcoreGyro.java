@@ -200,7 +200,7 @@ public class CruizcoreGyro extends I2CSensor {
         return getMode(0);
     }
 
-    private class AccelerationMode implements SensorMode {
+    private class AccelerationMode extends TimestampedMode {
 
         @Override
         public int sampleSize() {
@@ -245,7 +245,7 @@ public class CruizcoreGyro extends I2CSensor {
         return getMode(1);
     }
 
-    private class RateMode implements SensorMode {
+    private class RateMode extends TimestampedMode {
         @Override
         public int sampleSize() {
             return 1;
@@ -287,7 +287,7 @@ public class CruizcoreGyro extends I2CSensor {
         return getMode(2);
     }
 
-    private class AngleMode implements SensorMode {
+    private class AngleMode extends TimestampedMode {
         @Override
         public int sampleSize() {
             return 1;
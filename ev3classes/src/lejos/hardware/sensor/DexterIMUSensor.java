@@ -3,6 +3,7 @@ package lejos.hardware.sensor;
 import lejos.hardware.port.I2CPort;
 import lejos.hardware.port.Port;
 import lejos.robotics.SampleProvider;
+import lejos.robotics.TimestampedSampleProvider;
 import lejos.utility.Delay;
 import lejos.utility.EndianTools;
 
@@ -297,7 +298,7 @@ public class DexterIMUSensor extends BaseSensor implements SensorModes {
          * @author Aswin
          * 
          */
-        private class RateMode implements SampleProvider, SensorMode {
+        private class RateMode extends TimestampedMode {
             private static final int DATA_REG = 0x27 | 0x80;
 
             @Override
@@ -329,7 +330,7 @@ public class DexterIMUSensor extends BaseSensor implements SensorModes {
      * @author Aswin
      * 
      */
-    public class DexterIMUAccelerationSensor extends I2CSensor implements SampleProvider, SensorMode {
+    public class DexterIMUAccelerationSensor extends I2CSensor implements TimestampedSampleProvider, SensorMode {
         protected static final int   DATA_10BIT_REG = 0x00;
         protected static final int   DATA_8BIT_REG  = 0x06;
         protected static final int   MODE_REG       = 0x16;
@@ -370,6 +371,16 @@ public class DexterIMUSensor extends BaseSensor implements SensorModes {
             return "Acceleration";
         }
 
+        @Override
+        public long getSampleTime() {
+            return sampleTime;
+        }
+
+        @Override
+        public int getSampleSequence() {
+            return sampleSequence;
+        }
+
         @Override
         public void fetchSample(float[] sample, int offset) {
             fetchSample10(sample, offset);
@@ -150,7 +150,7 @@ public class EV3GyroSensor extends UARTSensor {
     switchMode(3, SWITCHDELAY);
   }
 
-  private class AngleMode implements SampleProvider, SensorMode {
+  private class AngleMode extends TimestampedMode {
     private static final int   MODE = 3;
     private static final float toSI = -1;
 
@@ -162,7 +162,7 @@ public class EV3GyroSensor extends UARTSensor {
     @Override
     public void fetchSample(float[] sample, int offset) {
       switchMode(MODE, SWITCHDELAY);
-      port.getShorts(raw, 0, raw.length);
+      readShorts(raw, 0, raw.length);
       sample[offset] = raw[0] * toSI;
     }
 
@@ -173,7 +173,7 @@ public class EV3GyroSensor extends UARTSensor {
 
   }
 
-  private class RateMode implements SampleProvider, SensorMode {
+  private class RateMode extends TimestampedMode {
     private static final int   MODE = 3;
     private static final float toSI = -1;
 
@@ -185,7 +185,7 @@ public class EV3GyroSensor extends UARTSensor {
     @Override
     public void fetchSample(float[] sample, int offset) {
       switchMode(MODE, SWITCHDELAY);
-      port.getShorts(raw, 0, raw.length);
+      readShorts(raw, 0, raw.length);
       sample[offset] = raw[1] * toSI;
     }
 
@@ -196,7 +196,7 @@ public class EV3GyroSensor extends UARTSensor {
 
   }
 
-  private class RateAndAngleMode implements SampleProvider, SensorMode {
+  private class RateAndAngleMode extends TimestampedMode {
     private static final int   MODE = 3;
     private static final float toSI = -1;
 
@@ -208,7 +208,7 @@ public class EV3GyroSensor extends UARTSensor {
     @Override
     public void fetchSample(float[] sample, int offset) {
       switchMode(MODE, SWITCHDELAY);
-      port.getShorts(raw, 0, raw.length);
+      readShorts(raw, 0, raw.length);
       for (int i=0;i<raw.length;i++) {
         sample[offset+i] = raw[i] * toSI;
       }
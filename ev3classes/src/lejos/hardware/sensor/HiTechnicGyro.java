@@ -94,7 +94,7 @@ public class HiTechnicGyro extends AnalogSensor implements SensorConstants {
       return getMode(0);
     }
 
-    private class RateMode implements SensorMode {
+    private class RateMode extends TimestampedMode {
 	@Override
 	public int sampleSize() {
 		return 1;
@@ -102,7 +102,7 @@ public class HiTechnicGyro extends AnalogSensor implements SensorConstants {
 
 	@Override
 	public void fetchSample(float[] sample, int offset) {
-		sample[offset] = ((float) NXTRawValue(port.getPin1()) - zero) * TO_SI;
+		sample[offset] = ((float) NXTRawValue(readPin1()) - zero) * TO_SI;
 	}
 
 	@Override
@@ -116,7 +116,9 @@ public class I2CSensor extends BaseSensor implements SensorConstants {
 	}
 	
 	/**
-	 * Executes an I2C read transaction and waits for the result.
+	 * Executes an I2C read transaction and waits for the result. The data
+	 * read is recorded as a new sample of the sensor, acquired half way
+	 * through the transaction.
 	 *
 	 * @param register I2C register, e.g 0x41
 	 * @param buf Buffer to return data
@@ -130,7 +132,9 @@ public class I2CSensor extends BaseSensor implements SensorConstants {
         for(int i = 0; i < retryCount; i++)
         {
             try {
+                long start = System.nanoTime();
                 port.i2cTransaction(address, ioBuf, 0, 1, buf, offset, len);
+                newSample(start + (System.nanoTime() - start)/2);
                 return;
             }
             catch (I2CException e)
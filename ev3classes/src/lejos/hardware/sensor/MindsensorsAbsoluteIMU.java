@@ -120,7 +120,7 @@ public class MindsensorsAbsoluteIMU extends I2CSensor implements SensorModes,
   protected ShortSensorMode   compassMode;
   protected ShortSensorMode   angleMode;
 
-  protected class ShortSensorMode implements SensorMode {
+  protected class ShortSensorMode extends TimestampedMode {
     protected final String  name;
     protected final int     sampleSize;
     protected final float[] convert;
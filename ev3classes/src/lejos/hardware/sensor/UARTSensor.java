@@ -13,6 +13,7 @@ public class UARTSensor extends BaseSensor
 {
     protected UARTPort port;
     protected int currentMode;
+    protected int dataSequence = -1;
     
 
      /**
@@ -85,8 +86,48 @@ public class UARTSensor extends BaseSensor
             else if (!port.setMode(newMode))
                 throw new IllegalArgumentException("Invalid sensor mode");
             currentMode = newMode;
+            dataSequence = -1;
             //Delay.msDelay(switchDelay);
         }
         
     }
+
+    /**
+     * Read a number of bytes from the sensor as a single data set. If the data
+     * set is one that has not been read before the sample time and sequence
+     * number of the sensor are updated. The device does not record when the
+     * data arrived, the time it was first seen is used.
+     * @param vals byte array to accept the data
+     * @param offset offset at which to store the data
+     * @param len number of bytes to read
+     */
+    protected void readBytes(byte[] vals, int offset, int len)
+    {
+        checkSequence(port.readBytes(vals, offset, len));
+    }
+
+    /**
+     * Read a number of shorts from the sensor as a single data set. If the data
+     * set is one that has not been read before the sample time and sequence
+     * number of the sensor are updated. The device does not record when the
+     * data arrived, the time it was first seen is used.
+     * @param vals short array to accept the data
+     * @param offset offset at which to store the data
+     * @param len number of shorts to read
+     */
+    protected void readShorts(short[] vals, int offset, int len)
+    {
+        checkSequence(port.readShorts(vals, offset, len));
+    }
+
+    private void checkSequence(int sequence)
+    {
+        // The sequence wraps, see UARTPort.getDataSequence, so a sensor that is read
+        // less often than the port buffer wraps may miss that a data set is new
+        if (sequence != dataSequence)
+        {
+            dataSequence = sequence;
+            newSample(System.nanoTime());
+        }
+    }
 }
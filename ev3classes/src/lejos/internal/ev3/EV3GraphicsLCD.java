@@ -36,7 +36,7 @@ public class EV3GraphicsLCD extends EV3LCD implements GraphicsLCD
     public EV3GraphicsLCD(String layerName)
     {
         super(layerName);
-        imageBuf = getDisplay();
+        imageBuf = displayBuf;
         width = SCREEN_WIDTH;
         height = SCREEN_HEIGHT;
     }
@@ -174,8 +174,9 @@ public class EV3GraphicsLCD extends EV3LCD implements GraphicsLCD
             bitBlt(null, width, height, 0, 0, imageBuf, width, height, x, y, cellWidth * strData.length, gh, pixelRop);
             rop = (rgbColor == WHITE ? ROP_OR : ROP_ANDINVERTED);
         }
-        for (int i = 0; i < strData.length; i++)
-            bitBlt(glyphs, span, gh, gw * (strData[i] - first), 0, imageBuf, width, height, x + i * cellWidth, y, gw, gh, rop);
+        if (!drawGlyphs(font, strData, first, imageBuf, width, height, x, y, cellWidth, gw, rop))
+            for (int i = 0; i < strData.length; i++)
+                bitBlt(glyphs, span, gh, gw * (strData[i] - first), 0, imageBuf, width, height, x + i * cellWidth, y, gw, gh, rop);
     }
 
     /**
@@ -1,6 +1,7 @@
 package lejos.internal.ev3;
 
 import lejos.hardware.lcd.CommonLCD;
+import lejos.hardware.lcd.Font;
 import lejos.internal.io.NativeDevice;
 import lejos.utility.Delay;
 
@@ -26,7 +27,7 @@ public class EV3LCD implements CommonLCD
     {
         layer = lcdMan.getLayer(layerName);
         layer.open();
-        displayBuf = layer.getDisplay();
+        displayBuf = layer.displayBuf;
     }
     
     public EV3LCD() 
@@ -109,11 +110,14 @@ public class EV3LCD implements CommonLCD
     
     /**
      * Provide access to the LCD display frame buffer. Allows both the firmware
-     * and Java to make changes.
+     * and Java to make changes. Changes made directly to the buffer are not
+     * tracked, so after this call the whole display is refreshed each time.
      * @return byte array that is the frame buffer.
      */
     public byte[] getDisplay()
     {
+        if (layer != null)
+            layer.setTracked(false);
         return displayBuf;
     }
 
@@ -182,16 +186,113 @@ public class EV3LCD implements CommonLCD
      */
     public void bitBlt(byte[] src, int sw, int sh, int sx, int sy, byte dst[], int dw, int dh, int dx, int dy, int w, int h, int rop)
     {
-        /* This is a partial implementation of the BitBlt algorithm. It provides a
-         * complete set of raster operations and handles partial and fully aligned
-         * images correctly. Overlapping source and destination images is also 
-         * supported. It does not performing mirroring. The code was converted
-         * from an initial Java implementation and has not been optimized for C.
-         * The general mechanism is to perform the block copy with Y as the inner
-         * loop (because on the display the bits are packed y-wise into a byte). We
-         * perform the various rop cases by reducing the operation to a series of
-         * AND and XOR operations. Each step is controlled by a byte in the rop code.
-         * This mechanism is based upon that used in the X Windows system server.
+        copyBits(src, sw, sh, sx, sy, dst, dw, dh, dx, dy, w, h, rop);
+        // Record the rows of the display that may have changed
+        if (dst == displayBuf && layer != null)
+            layer.markDirty(dy, h);
+    }
+
+    /**
+     * Draw a row of characters using the expanded glyph rows held by the font.
+     * Each scan line of the string is built up in an int, one glyph at a time,
+     * and written to the destination a byte at a time as the bytes are
+     * completed. So each byte of the destination is read and written once,
+     * rather than once for each glyph that touches it. The result is the same
+     * as using bitBlt to copy each glyph from the glyph map of the font.
+     * @param font the font holding the glyphs
+     * @param chars the characters to draw
+     * @param first the character held by the first glyph of the font
+     * @param dst byte array containing the destination image
+     * @param dw Width of the destination image
+     * @param dh Height of the destination image
+     * @param dx X destination
+     * @param dy Y destination
+     * @param cellWidth distance between the start of each character
+     * @param w width of each glyph
+     * @param rop raster operation.
+     * @return false if the glyphs can not be drawn this way and bitBlt should be used
+     */
+    protected boolean drawGlyphs(Font font, char[] chars, int first, byte[] dst, int dw, int dh, int dx, int dy, int cellWidth, int w, int rop)
+    {
+        int[] rows = font.getGlyphRows();
+        if (rows == null || w != font.glyphWidth || cellWidth < w)
+            return false;
+        int h = font.height;
+        int count = font.glyphCount;
+        int n = chars.length;
+        int dwb = (dw+7)/8;
+        // mask for the pixels of the last byte of a row that are in the image
+        int edgeMask = ((dw & 0x7) == 0 ? 0xff : (1 << (dw & 0x7)) - 1);
+        int glyphMask = (1 << w) - 1;
+        int ca1 = (rop >> 24) & 0xff;
+        int cx1 = (rop >> 16) & 0xff;
+        int ca2 = (rop >> 8) & 0xff;
+        int cx2 = rop & 0xff;
+        for (int row = 0; row < h; row++)
+        {
+            int y = dy + row;
+            if (y < 0 || y >= dh) continue;
+            int rowStart = y*dwb;
+            int cur = dx >> 3;
+            int bits = 0;
+            int mask = 0;
+            for (int i = 0; i <= n; i++)
+            {
+                // Write out the bytes before the next glyph, or all of them
+                // once the last glyph has been added.
+                int p = (i < n ? dx + i*cellWidth - (cur << 3) : 40);
+                while (p >= 8)
+                {
+                    int byteMask = mask & 0xff;
+                    if (byteMask != 0 && cur >= 0 && cur < dwb)
+                    {
+                        if (cur == dwb - 1)
+                            byteMask &= edgeMask;
+                        int inVal = bits & 0xff;
+                        int outIndex = rowStart + cur;
+                        int outVal = dst[outIndex] & 0xff;
+                        int res = (outVal & ((inVal & ca1)^cx1)) ^ ((inVal & ca2)^cx2);
+                        dst[outIndex] = (byte)((outVal & ~byteMask) | (res & byteMask));
+                    }
+                    bits >>>= 8;
+                    mask >>>= 8;
+                    cur++;
+                    p -= 8;
+                    if (mask == 0)
+                    {
+                        cur += p >> 3;
+                        p &= 0x7;
+                    }
+                }
+                if (i == n || cur >= dwb) break;
+                int glyph = chars[i] - first;
+                if (glyph >= 0 && glyph < count)
+                {
+                    bits |= rows[glyph*h + row] << p;
+                    mask |= glyphMask << p;
+                }
+            }
+        }
+        if (dst == displayBuf && layer != null)
+            layer.markDirty(dy, h);
+        return true;
+    }
+
+    /**
+     * Perform the bitBlt operation.
+     */
+    private void copyBits(byte[] src, int sw, int sh, int sx, int sy, byte dst[], int dw, int dh, int dx, int dy, int w, int h, int rop)
+    {
+        /* The copy is performed a byte of the destination at a time. For each
+         * byte the matching source bits are gathered from the one or two source
+         * bytes that hold them, then combined with the destination using the
+         * raster operation and a mask for the pixels outside of the area at
+         * either end of a row. The raster operation is reduced to a series of
+         * AND and XOR operations. Each step is controlled by a byte in the rop
+         * code. This mechanism is based upon that used in the X Windows system
+         * server. Overlapping source and destination images are supported by
+         * choosing the order of the rows and bytes so each source byte is read
+         * before it is overwritten. Mirroring is not supported.
          */
         // Clip to source and destination
         int trim;
@@ -216,151 +317,70 @@ public class EV3LCD implements CommonLCD
         if (dy + h > dh) h = dh - dy;
         if (sy + h > sh) h = sh - sy;
         if (h <= 0) return;
-        // Setup initial parameters and check for overlapping copy
-        int xinc = 1;
-        int yinc = 1;
-        byte firstBit = 1;
-        if (src == dst)
-        {
-          // If copy overlaps we use reverse direction
-          if (dy > sy)
-          {
-            sy = sy + h - 1;
-            dy = dy + h - 1;
-            yinc = -1;
-          }
-          if (dx > sx)
-          {
-            firstBit = (byte)0x80;
-            xinc = -1;
-            sx = sx + w - 1;
-            dx = dx + w - 1;
-          }
-        }
         if (src == null)
             src = dst;
         int swb = (sw+7)/8;
         int dwb = (dw+7)/8;
-        //if (src == displayBuf)
-            //swb = HW_MEM_WIDTH;
-        //if (dst == displayBuf)
-            //dwb = HW_MEM_WIDTH;
-        int inStart = sy*swb;
-        int outStart = dy*dwb;
-        byte inStartBit = (byte)(1 << (sx & 0x7));
-        byte outStartBit = (byte)(1 << (dx & 0x7));
-        dwb *= yinc;
-        swb *= yinc;
         // Extract rop sub-fields
-        byte ca1 = (byte)(rop >> 24);
-        byte cx1 = (byte)(rop >> 16);
-        byte ca2 = (byte)(rop >> 8);
-        byte cx2 = (byte) rop;
-        boolean noDst = (ca1 == 0 && cx1 == 0);
-        int ycnt;
-        // Check for byte aligned case and optimise for it
-        if (w >= 8 && inStartBit == firstBit && outStartBit == firstBit)
+        int ca1 = (rop >> 24) & 0xff;
+        int cx1 = (rop >> 16) & 0xff;
+        int ca2 = (rop >> 8) & 0xff;
+        int cx2 = rop & 0xff;
+        boolean useSrc = (ca1 | ca2) != 0;
+        // whole bytes can be written without reading the destination
+        boolean noDst = (ca1 | cx1) == 0;
+        // destination bytes and the masks for the partial bytes at each end
+        int firstByte = dx >> 3;
+        int lastByte = (dx + w - 1) >> 3;
+        int firstMask = (0xff << (dx & 0x7)) & 0xff;
+        int lastMask = 0xff >> (7 - ((dx + w - 1) & 0x7));
+        // offset from a destination pixel to the matching source pixel
+        int shift = sx - dx;
+        // Check for overlapping copy and if needed use reverse direction
+        int yinc = 1;
+        int xinc = 1;
+        if (src == dst)
         {
-          int ix = sx/8;
-          int ox = dx/8;
-          int byteCnt = w/8;
-          ycnt = h;
-          while (ycnt-- > 0)
-          {
-            int inIndex = inStart + ix;
-            int outIndex = outStart + ox;
-            int cnt = byteCnt;
-            while(cnt-- > 0)
-            {
-              if (noDst)
-                dst[outIndex] = (byte)((src[inIndex] & ca2)^cx2);            
-              else
-              {
-                byte inVal = src[inIndex];
-                dst[outIndex] = (byte)((dst[outIndex] & ((inVal & ca1)^cx1)) ^ ((inVal & ca2)^cx2));
-              }
-              outIndex += xinc;
-              inIndex += xinc;
-            }
-            ix += swb;
-            ox += dwb;
-          }
-          // Do we have a final non byte multiple to do?
-          w &= 0x7;
-          if (w == 0) 
-          {
-              //if (dst == displayBuf)
-                  //update(displayBuf);
-              return;
-          }
-          //inStart = sy*swb;
-          //outStart = dy*dwb;
-          sx += byteCnt*8;
-          dx += byteCnt*8;
+            if (dy > sy)
+                yinc = -1;
+            if (shift < 0)
+                xinc = -1;
         }
-        // General non byte aligned case
-        int ix = sx/8;
-        int ox = dx/8;
-        ycnt = h;
-        while(ycnt-- > 0)
+        int row = (yinc > 0 ? 0 : h - 1);
+        for(int ycnt = h; ycnt > 0; ycnt--, row += yinc)
         {
-          int inIndex = inStart + ix;
-          byte inBit = inStartBit;
-          byte inVal = src[inIndex];
-          byte inAnd = (byte)((inVal & ca1)^cx1);
-          byte inXor = (byte)((inVal & ca2)^cx2);
-          int outIndex = outStart + ox;
-          byte outBit = outStartBit;
-          byte outPixels = dst[outIndex];
-          int cnt = w;
-          while(true)
-          {
-            if (noDst)
+            int inStart = (sy + row)*swb;
+            int outStart = (dy + row)*dwb;
+            int ox = (xinc > 0 ? firstByte : lastByte);
+            for(int cnt = lastByte - firstByte + 1; cnt > 0; cnt--, ox += xinc)
             {
-              if ((inXor & inBit) != 0)
-                outPixels |= outBit;
-              else
-                outPixels &= ~outBit;
+                int mask = (ox == firstByte ? firstMask : 0xff);
+                if (ox == lastByte)
+                    mask &= lastMask;
+                int inVal = 0;
+                if (useSrc)
+                {
+                    int bit = (ox << 3) + shift;
+                    int ix = bit >> 3;
+                    int bitShift = bit & 0x7;
+                    if (ix >= 0)
+                        inVal = (src[inStart + ix] & 0xff) >> bitShift;
+                    if (bitShift != 0 && ix + 1 < swb)
+                        inVal |= (src[inStart + ix + 1] & 0xff) << (8 - bitShift);
+                    inVal &= 0xff;
+                }
+                int outIndex = outStart + ox;
+                if (mask == 0xff && noDst)
+                    dst[outIndex] = (byte)((inVal & ca2)^cx2);
+                else
+                {
+                    int outVal = dst[outIndex] & 0xff;
+                    int res = (outVal & ((inVal & ca1)^cx1)) ^ ((inVal & ca2)^cx2);
+                    dst[outIndex] = (byte)((outVal & ~mask) | (res & mask));
+                }
             }
-            else
-            {
-              byte resBit = (byte)((outPixels & ((inAnd & inBit) != 0 ? outBit : 0))^((inXor & inBit) != 0 ? outBit : 0));
-              outPixels = (byte)((outPixels & ~outBit) | resBit);
-            }
-            if (--cnt <= 0) break;
-            if (xinc > 0)
-            {
-              inBit <<= 1;
-              outBit <<= 1;
-            }
-            else
-            {
-              inBit >>= 1;
-              outBit >>= 1;
-            }
-            if (inBit == 0)
-            {
-              inBit = firstBit;
-              inIndex += xinc;
-              inVal = src[inIndex];
-              inAnd = (byte)((inVal & ca1)^cx1);
-              inXor = (byte)((inVal & ca2)^cx2);
-            }
-            if (outBit == 0)
-            {
-              dst[outIndex] = outPixels;
-              outBit = firstBit;
-              outIndex += xinc;
-              outPixels = dst[outIndex];
-            }
-          }
-          dst[outIndex] = outPixels;
-          inStart += swb;
-          outStart += dwb;
         }
-        //if (dst == displayBuf)
-            //update(displayBuf);
-      }        
+    }
 
     /**
      * Set the LCD contrast.
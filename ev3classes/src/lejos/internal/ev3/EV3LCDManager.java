@@ -13,7 +13,10 @@ import com.sun.jna.Pointer;
  * Each layer can be used as the frame buffer for text/graphics output. Layers can be
  * made visible or invisible. If more than one layer is visible the layers will be
  * combined and will overlay each other on the display. Layers are named and this
- * name can be used to access the layer. 
+ * name can be used to access the layer. <br>
+ * The rows of each layer that have been changed by the drawing methods are
+ * tracked, and only those rows are combined and copied to the display when
+ * it is refreshed. If nothing has changed the refresh is skipped.
  * @author andy
  *
  */
@@ -32,6 +35,12 @@ public class EV3LCDManager
     protected static EV3LCDManager localLCDManager = new EV3LCDManager();
     protected ArrayList<LCDLayer> layers = new ArrayList<LCDLayer>();
     protected volatile LCDLayer [] visibleLayers = new LCDLayer[0];
+    protected boolean fullRefresh = true;
+    // Refresh cost counters
+    protected int refreshCnt = 0;
+    protected int skipCnt = 0;
+    protected int rowCnt = 0;
+    protected long refreshNanos = 0;
     static
     {
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -52,6 +61,12 @@ public class EV3LCDManager
         protected boolean autoRefresh = true;
         protected String name;
         protected int openCnt = 0;
+        // Rows changed since the last refresh, none if dirtyStart >= dirtyEnd.
+        // These have their own lock as the layer is locked while the manager is.
+        protected final Object dirtyLock = new Object();
+        protected int dirtyStart = 0;
+        protected int dirtyEnd = EV3LCD.SCREEN_HEIGHT;
+        protected boolean tracked = true;
 
         /**
          * Create the layer and give it a name
@@ -132,14 +147,60 @@ public class EV3LCDManager
         }
 
         /**
-         * Get the frame buffer
+         * Get the frame buffer. Changes made directly to the buffer can not be
+         * tracked, so after this call the whole layer is copied on every refresh
+         * unless tracking is turned back on.
          * @return the array of bytes that represents the frame buffer for this layer
          */
         public byte[] getDisplay()
         {
+            setTracked(false);
             return displayBuf;
         }
 
+        /**
+         * Turn the tracking of changed rows on or off. When it is off the whole
+         * layer is copied on every refresh. Code that writes to the frame buffer
+         * directly can turn tracking on and report the rows it changes with
+         * {@link #markDirty(int, int)}.
+         * @param tracked true if all changes will be reported
+         */
+        public void setTracked(boolean tracked)
+        {
+            synchronized(dirtyLock)
+            {
+                this.tracked = tracked;
+            }
+        }
+
+        /**
+         * Record that a set of rows of the layer have been changed. This should
+         * be called after the rows have been written.
+         * @param y the first row changed
+         * @param h the number of rows changed
+         */
+        public void markDirty(int y, int h)
+        {
+            int end = Math.min(y + h, EV3LCD.SCREEN_HEIGHT);
+            if (y < 0)
+                y = 0;
+            if (y >= end)
+                return;
+            synchronized(dirtyLock)
+            {
+                if (dirtyStart >= dirtyEnd)
+                {
+                    dirtyStart = y;
+                    dirtyEnd = end;
+                }
+                else
+                {
+                    dirtyStart = Math.min(dirtyStart, y);
+                    dirtyEnd = Math.max(dirtyEnd, end);
+                }
+            }
+        }
+
         /**
          * Update the hardware display.
          */
@@ -267,37 +328,117 @@ public class EV3LCDManager
                 vis[visCnt++] = l;
                 autoRefresh |= l.autoRefresh;
             }
-        // Make the new list active
+        // Make the new list active, the whole screen needs to be redrawn
         visibleLayers = vis; 
+        fullRefresh = true;
         update();
     }
 
     /**
-     * Helper method. Copy all of the visible layers to the HW screen
+     * Helper method. Copy the changed rows of all of the visible layers to the
+     * HW screen.
      */
     synchronized protected void update()
     {
+        long start = System.nanoTime();
         LCDLayer[] vis = visibleLayers;
+        // work out which rows have changed
+        int y0 = EV3LCD.SCREEN_HEIGHT;
+        int y1 = 0;
+        if (fullRefresh)
+        {
+            y0 = 0;
+            y1 = EV3LCD.SCREEN_HEIGHT;
+            fullRefresh = false;
+        }
+        for(LCDLayer l : vis)
+            synchronized(l.dirtyLock)
+            {
+                if (!l.tracked)
+                {
+                    y0 = 0;
+                    y1 = EV3LCD.SCREEN_HEIGHT;
+                }
+                else if (l.dirtyStart < l.dirtyEnd)
+                {
+                    y0 = Math.min(y0, l.dirtyStart);
+                    y1 = Math.max(y1, l.dirtyEnd);
+                }
+                l.dirtyStart = l.dirtyEnd = 0;
+            }
+        refreshTime = System.currentTimeMillis() + DEFAULT_REFRESH_PERIOD;
+        if (y0 >= y1)
+        {
+            skipCnt++;
+            return;
+        }
         if (vis.length > 0)
         {
             // copy first layer to the display
-            for(int row = 0; row < EV3LCD.SCREEN_HEIGHT; row++)
+            for(int row = y0; row < y1; row++)
                 System.arraycopy(vis[0].displayBuf, row*EV3LCD.SCREEN_MEM_WIDTH, hwBuffer, row*HW_MEM_WIDTH, EV3LCD.SCREEN_MEM_WIDTH);
             // now or in any other layers
             for(int i = 1; i < vis.length; i++)
-                for(int row = 0; row < EV3LCD.SCREEN_HEIGHT; row++)
+                for(int row = y0; row < y1; row++)
                     for(int col = 0; col < EV3LCD.SCREEN_MEM_WIDTH; col++)
                         hwBuffer[row*HW_MEM_WIDTH + col] |= vis[i].displayBuf[row*EV3LCD.SCREEN_MEM_WIDTH + col];
-            lcd.write(0, hwBuffer, 0, hwBuffer.length);            
         }
         else
         {
             // nothing to display, clear the screen
-            for(int i = 0; i < hwBuffer.length; i++)
+            for(int i = y0*HW_MEM_WIDTH; i < y1*HW_MEM_WIDTH; i++)
                 hwBuffer[i] = 0;
         }
-        lcd.write(0, hwBuffer, 0, hwBuffer.length);
-        refreshTime = System.currentTimeMillis() + DEFAULT_REFRESH_PERIOD;
+        lcd.write(y0*HW_MEM_WIDTH, hwBuffer, y0*HW_MEM_WIDTH, (y1 - y0)*HW_MEM_WIDTH);
+        refreshCnt++;
+        rowCnt += y1 - y0;
+        refreshNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Return the number of refreshes that have copied rows to the display.
+     * @return the refresh count
+     */
+    public synchronized int getRefreshCount()
+    {
+        return refreshCnt;
+    }
+
+    /**
+     * Return the number of refreshes that were skipped because nothing had
+     * changed.
+     * @return the skipped refresh count
+     */
+    public synchronized int getSkippedRefreshCount()
+    {
+        return skipCnt;
+    }
+
+    /**
+     * Return the total number of rows copied to the display.
+     * @return the row count
+     */
+    public synchronized int getRefreshRowCount()
+    {
+        return rowCnt;
+    }
+
+    /**
+     * Return the total time spent refreshing the display.
+     * @return the time in ns
+     */
+    public synchronized long getRefreshTime()
+    {
+        return refreshNanos;
+    }
+
+    /**
+     * Reset the refresh cost counters.
+     */
+    public synchronized void resetRefreshCounters()
+    {
+        refreshCnt = skipCnt = rowCnt = 0;
+        refreshNanos = 0;
     }
 
     /**
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
 import lejos.hardware.motor.MotorRegulator;
+import lejos.hardware.motor.SetPointQueue;
 import lejos.hardware.port.BasicMotorPort;
 import lejos.hardware.port.TachoMotorPort;
 import lejos.internal.io.NativeDevice;
@@ -25,6 +26,16 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
     static final byte OUTPUT_SET_TYPE = (byte)6;
     static final byte OUTPUT_CLR_COUNT = (byte)7;
     static final byte OUTPUT_POWER = (byte)8;
+    // Number of motor ports and the layout of the shared memory for each port
+    static final int PORTS = 4;
+    static final int SHARED_INTS = 8;
+    static final int SH_OFFSET = 0;
+    static final int SH_CNT = 1;
+    static final int SH_VELOCITY = 2;
+    static final int SH_TACHO = 3;
+    static final int SH_STATE = 4;
+    static final int SH_TIME = 5;
+    static final int SH_TIME2 = 6;
 
         
     protected static byte[] regCmd2 = new byte[55*4];
@@ -41,6 +52,94 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
     protected byte[] cmd = new byte[3];
     protected MotorRegulator regulator;
     protected static final EV3MotorRegulatorKernelModule[] syncSlave = new EV3MotorRegulatorKernelModule[0];
+    protected static final EV3MotorRegulatorKernelModule[] regulators = new EV3MotorRegulatorKernelModule[PORTS];
+    // Read before each access to the shared memory that does not hold a lock.
+    // The read acts as a barrier and stops the JIT from caching or reordering
+    // the shared memory reads.
+    protected static volatile int barrier;
+
+    /**
+     * The state of all of the motor regulators at one instant, as returned by
+     * {@link EV3MotorPort#getSnapshot(Snapshot)}. The arrays are indexed by port
+     * number. The tacho count and position are relative to the last reset of the
+     * regulator for the port.
+     */
+    public static class Snapshot
+    {
+        /** tacho count in degrees */
+        public final int[] tachoCount = new int[PORTS];
+        /** regulator position in degrees */
+        public final float[] position = new float[PORTS];
+        /** velocity in degrees per second */
+        public final float[] velocity = new float[PORTS];
+        /** regulator state */
+        public final int[] state = new int[PORTS];
+        /** kernel module time stamp in ms */
+        public final int[] time = new int[PORTS];
+        /** number of times the read was repeated because the kernel module updated the state */
+        public int retries;
+    }
+
+    /**
+     * Read a value from the shared memory without taking a lock.
+     * @param index offset in ints
+     * @return the value
+     */
+    protected static int readShared(int index)
+    {
+        int b = barrier;
+        return ibuf.get(index);
+    }
+
+    /**
+     * Take a snapshot of the state of all of the motor regulators. No locks are
+     * taken, instead the time stamps written by the kernel module at the start
+     * and end of each update are checked before and after the values are read,
+     * and the read is repeated if they change. This method does not allocate
+     * memory, so can be used from control loops that run at a high rate.
+     * @param s the snapshot to fill in
+     */
+    public static void getSnapshot(Snapshot s)
+    {
+        int retries = -1;
+        boolean changed;
+        do {
+            retries++;
+            changed = false;
+            for(int p = 0; p < PORTS; p++)
+            {
+                s.time[p] = readShared(p*SHARED_INTS + SH_TIME);
+                if (readShared(p*SHARED_INTS + SH_TIME2) != s.time[p])
+                    changed = true;
+            }
+            if (changed) continue;
+            for(int p = 0; p < PORTS; p++)
+            {
+                final int base = p*SHARED_INTS;
+                float cnt = (float)readShared(base + SH_CNT)/EV3MotorRegulatorKernelModule.FIX_SCALE;
+                s.position[p] = cnt + readShared(base + SH_OFFSET);
+                s.velocity[p] = ((float)readShared(base + SH_VELOCITY)/EV3MotorRegulatorKernelModule.FIX_SCALE/1024)*1000;
+                s.tachoCount[p] = readShared(base + SH_TACHO);
+                s.state[p] = readShared(base + SH_STATE);
+            }
+            for(int p = 0; p < PORTS; p++)
+            {
+                final int base = p*SHARED_INTS;
+                if (readShared(base + SH_TIME) != s.time[p] || readShared(base + SH_TIME2) != s.time[p])
+                    changed = true;
+            }
+        } while (changed);
+        for(int p = 0; p < PORTS; p++)
+        {
+            EV3MotorRegulatorKernelModule r = regulators[p];
+            if (r != null)
+            {
+                s.tachoCount[p] -= r.zeroTachoCnt;
+                s.position[p] -= r.zeroTachoCnt;
+            }
+        }
+        s.retries = retries;
+    }
 
     /**
      * Implementation of a PID based motor regulator that uses a kernel module
@@ -78,10 +177,19 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
         protected int stallTime=1000;
         protected EV3MotorRegulatorKernelModule[] syncThis = new EV3MotorRegulatorKernelModule[] {this};
         protected EV3MotorRegulatorKernelModule[] syncWith = syncThis;
-        protected EV3MotorRegulatorKernelModule[] syncActive = syncThis;
+        protected volatile EV3MotorRegulatorKernelModule[] syncActive = syncThis;
         
         protected byte[] regCmd = new byte[55];
 
+        // Trajectory made up of queued set points
+        static final int SET_POINTS = 32;
+        protected final SetPointQueue setPoints = new SetPointQueue(SET_POINTS);
+        protected boolean streaming = false;
+        protected long segmentStart;
+        protected int segmentPhase;
+        protected int streamAcc = 6000;
+        protected SetPointFeeder feeder;
+
         // state for listener stuff
         boolean started = false;
         RegulatedMotorListener listener;
@@ -95,6 +203,7 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
             this.setDaemon(true);
             // cache the actual port number
             this.port = EV3MotorPort.this.port;
+            regulators[port] = this;
         }
         
         // Fixed point routines and constants
@@ -209,21 +318,24 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
         }
 
         /**
-         * Thread to handle listeners.
+         * Thread to handle listeners. The regulator state is polled without
+         * holding the monitor so that the thread does not contend with readers.
          */
-        public synchronized void run()
+        public void run()
         {
             while (true)
             {
-                // wait until a move is actually started
-                while (!started)
-                    try {
-                        wait();
-                    } catch (InterruptedException e){}
+                synchronized(this)
+                {
+                    // wait until a move is actually started
+                    while (!started)
+                        try {
+                            wait();
+                        } catch (InterruptedException e){}
+                }
+                while (isMoving())
+                    Delay.msDelay(5);
                 checkComplete();
-                try {
-                    wait(5);
-                } catch (InterruptedException e){}
             }
         }
         
@@ -428,12 +540,21 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
         {
             synchronized(this)
             {
+                // abandon any trajectory, the kernel module will be running one of its moves
+                boolean wasStreaming = streaming;
+                if (streaming)
+                {
+                    streaming = false;
+                    setPoints.clear();
+                    notifyAll();
+                }
+                streamAcc = acceleration;
                 limitAngle = limit;
                 if (Math.abs(limit) != NO_LIMIT)
                     limit += zeroTachoCnt;
                 updateRegulatorInformation();
                 // Ignore repeated commands
-                if (curState != ST_STALL && !waitComplete && (speed == curSpeed) && (curAcc == acceleration) && (curLimit == limit) && (curHold == hold))
+                if (!wasStreaming && curState != ST_STALL && !waitComplete && (speed == curSpeed) && (curAcc == acceleration) && (curLimit == limit) && (curHold == hold))
                     return;
                 // save the move parameters
                 curSpeed = speed;
@@ -508,23 +629,47 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
         }
         
         /**
-         * returns the current position from the regulator
+         * returns the current position from the regulator. Unless a set of
+         * synchronized operations is in progress the position is read without
+         * taking any locks.
          * @return current position in degrees
          */
-        public synchronized float getPosition()
+        public float getPosition()
         {
-            updateRegulatorInformation();
-            return curPosition - zeroTachoCnt;
+            if (syncActive != syncThis)
+                synchronized(this)
+                {
+                    updateRegulatorInformation();
+                    return curPosition - zeroTachoCnt;
+                }
+            final int base = port*SHARED_INTS;
+            float pos = 0;
+            boolean changed;
+            do {
+                int time = readShared(base + SH_TIME);
+                changed = readShared(base + SH_TIME2) != time;
+                if (!changed)
+                {
+                    pos = FixToFloat(readShared(base + SH_CNT)) + readShared(base + SH_OFFSET);
+                    changed = readShared(base + SH_TIME) != time || readShared(base + SH_TIME2) != time;
+                }
+            } while (changed);
+            return pos - zeroTachoCnt;
         }
 
         /**
          * returns the current velocity from the regulator
          * @return velocity in degrees per second
          */
-        public synchronized float getCurrentVelocity()
+        public float getCurrentVelocity()
         {
-            updateRegulatorInformation();
-            return curVelocity;
+            if (syncActive != syncThis)
+                synchronized(this)
+                {
+                    updateRegulatorInformation();
+                    return curVelocity;
+                }
+            return (FixToFloat(readShared(port*SHARED_INTS + SH_VELOCITY))/1024)*1000;
         }
 
 
@@ -535,11 +680,8 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
         protected int getRegState()
         {
             if (syncActive.length <= 0) return curState;
-            synchronized(ibuf)
-            {
-                curState = ibuf.get(port*8 + 4);
-                return curState;
-            }
+            curState = readShared(port*SHARED_INTS + SH_STATE);
+            return curState;
         }
         
         public boolean isMoving()
@@ -578,6 +720,8 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
          */
         public synchronized void adjustSpeed(float newSpeed)
         {
+            if (streaming)
+                return;
             if (curSpeed != 0 && newSpeed != curSpeed)
             {
                 updateRegulatorInformation();
@@ -596,6 +740,9 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
          */
         public synchronized void adjustAcceleration(int newAcc)
         {
+            streamAcc = newAcc;
+            if (streaming)
+                return;
             if (newAcc != curAcc)
             {
                 updateRegulatorInformation();
@@ -686,11 +833,167 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
                 for(int i = 1; i < syncWith.length; i++)
                     syncWith[i].syncActive = syncWith[i].syncThis;
             }
+            // start any trajectories that have been queued
+            for(EV3MotorRegulatorKernelModule r : syncWith)
+                r.startQueuedSetPoints();
             if (!immRet)
                 waitComplete();
             // set master back to normal operation
             syncActive = syncThis;
         }
+
+        public synchronized boolean addSetPoint(float position, float velocity, int time)
+        {
+            if (!setPoints.add(position, velocity, time))
+                return false;
+            // if synchronizing start when the synchronization ends
+            if (!streaming && syncActive == syncThis)
+                startSetPoints();
+            return true;
+        }
+
+        public int getSetPointCount()
+        {
+            return setPoints.size();
+        }
+
+        /**
+         * Start to follow any set points that were queued during a set of
+         * synchronized operations.
+         */
+        protected synchronized void startQueuedSetPoints()
+        {
+            if (!streaming && setPoints.size() > 0)
+                startSetPoints();
+        }
+
+        /**
+         * Start to follow the queued set points from the current position and
+         * velocity.
+         */
+        protected void startSetPoints()
+        {
+            updateRegulatorInformation();
+            if (!setPoints.next(curPosition - zeroTachoCnt, curVelocity))
+                return;
+            streaming = true;
+            segmentStart = System.nanoTime();
+            segmentPhase = 0;
+            sendSetPointMove(0, 0);
+            if (feeder == null)
+            {
+                feeder = new SetPointFeeder();
+                feeder.setDaemon(true);
+                feeder.setPriority(Thread.MAX_PRIORITY);
+                feeder.start();
+            }
+            notifyAll();
+        }
+
+        /**
+         * Send the kernel module the move for one half of the segment being
+         * followed. The kernel module can only run moves made up of phases of
+         * constant acceleration, so the move changes velocity at a constant
+         * rate until the end of the half and then runs on at the new velocity.
+         * If the move for the next half is late the motor keeps moving rather
+         * than stopping. Each move starts from the ideal position, so errors
+         * do not build up.
+         * @param elapsed time in ms since the start of the segment
+         * @param phase 0 for the first half, 1 for the second
+         */
+        protected void sendSetPointMove(float elapsed, int phase)
+        {
+            float end = (phase == 0 ? setPoints.getDuration()/2f : setPoints.getDuration());
+            float target = (phase == 0 ? setPoints.getMidVelocity() : setPoints.getEndVelocity());
+            float vel = setPoints.getVelocity(elapsed);
+            // convert the position to the units used by the kernel module
+            float cnt = setPoints.getPosition(elapsed) + zeroTachoCnt - curPosition + curCnt;
+            int t1 = Math.round(end - elapsed);
+            float a1 = (t1 > 0 ? (target - vel)*1000/t1 : 0);
+            if (a1 == 0)
+                t1 = 0;
+            float s1 = (vel + target)*t1/(2*1000);
+            subMove(t1, NO_LIMIT, 0, cnt, cnt + s1, 0, vel, target, a1, 0, stallLimit, stallTime, (curState >= ST_START ? curTime : 0), true);
+            synchronized(pwm)
+            {
+                pwm.write(regCmd, 55);
+            }
+        }
+
+        /**
+         * Send the next move to the kernel module if one is due. When the last
+         * set point has been reached the motor is stopped.
+         * @return time in ns until the next move is due, or 0 if the trajectory has ended
+         */
+        protected long feedSetPoints()
+        {
+            long now = System.nanoTime();
+            float elapsed = (now - segmentStart)/1000000f;
+            while (elapsed >= setPoints.getDuration())
+            {
+                segmentStart += setPoints.getDuration()*1000000L;
+                elapsed -= setPoints.getDuration();
+                segmentPhase = -1;
+                if (!setPoints.next(setPoints.getEndPosition(), setPoints.getEndVelocity()))
+                {
+                    // no more set points so stop
+                    streaming = false;
+                    updateRegulatorInformation();
+                    curSpeed = 0;
+                    curAcc = streamAcc;
+                    curLimit = NO_LIMIT;
+                    curHold = true;
+                    newMove = true;
+                    executeMove();
+                    return 0;
+                }
+            }
+            int phase = (elapsed < setPoints.getDuration()/2f ? 0 : 1);
+            if (phase != segmentPhase)
+            {
+                updateRegulatorInformation();
+                if (curState == ST_STALL)
+                {
+                    // the kernel module has abandoned the move
+                    streaming = false;
+                    setPoints.clear();
+                    return 0;
+                }
+                sendSetPointMove(elapsed, phase);
+                segmentPhase = phase;
+            }
+            long due = segmentStart + (phase == 0 ? setPoints.getDuration()*500000L : setPoints.getDuration()*1000000L);
+            return Math.max(due - now, 1);
+        }
+
+        /**
+         * Thread that sends the moves for the queued set points to the kernel
+         * module as each one becomes due.
+         */
+        protected class SetPointFeeder extends Thread
+        {
+            @Override
+            public void run()
+            {
+                final EV3MotorRegulatorKernelModule r = EV3MotorRegulatorKernelModule.this;
+                synchronized(r)
+                {
+                    while (true)
+                    {
+                        try {
+                            if (!streaming)
+                                r.wait();
+                            else
+                            {
+                                long wait = feedSetPoints();
+                                if (wait > 0)
+                                    r.wait(wait/1000000, (int)(wait % 1000000));
+                            }
+                        } catch (InterruptedException e){}
+                    }
+                }
+            }
+        }
     }    
 
     /** {@inheritDoc}
@@ -778,10 +1081,7 @@ public class EV3MotorPort extends EV3IOPort implements TachoMotorPort {
      */
     public  int getTachoCount()
     {
-        synchronized(ibuf)
-        {
-            return ibuf.get(port*8 + 3);
-        }
+        return readShared(port*SHARED_INTS + SH_TACHO);
     }
     
     
@@ -39,8 +39,9 @@ public class EV3TextLCD extends EV3LCD implements TextLCD {
         // Draw the background rect
         bitBlt(null, SCREEN_WIDTH, SCREEN_HEIGHT, 0, 0, x * font.glyphWidth, y * font.height, strData.length * font.glyphWidth, font.height, ROP_CLEAR);
         // and the characters
-        for (int i = 0; (i < strData.length); i++)
-            bitBlt(font.glyphs, font.width * font.glyphCount, font.height, font.width * (strData[i]-32), 0, (x + i) * font.glyphWidth, y * font.height, font.width, font.height, ROP_COPY);
+        if (!drawGlyphs(font, strData, 32, displayBuf, SCREEN_WIDTH, SCREEN_HEIGHT, x * font.glyphWidth, y * font.height, font.glyphWidth, font.width, ROP_COPY))
+            for (int i = 0; (i < strData.length); i++)
+                bitBlt(font.glyphs, font.width * font.glyphCount, font.height, font.width * (strData[i]-32), 0, (x + i) * font.glyphWidth, y * font.height, font.width, font.height, ROP_COPY);
     }
     
 
@@ -86,8 +87,9 @@ public class EV3TextLCD extends EV3LCD implements TextLCD {
             // Draw the background rect
             bitBlt(null, SCREEN_WIDTH, SCREEN_HEIGHT, 0, 0, x * font.glyphWidth, y * font.height, strData.length * font.glyphWidth, font.height, ROP_SET);
             // and the characters
-            for (int i = 0; (i < strData.length); i++)
-                bitBlt(font.glyphs, font.width * font.glyphCount, font.height, font.width * (strData[i]-32), 0, (x + i) * font.glyphWidth, y * font.height, font.width, font.height, ROP_COPYINVERTED);
+            if (!drawGlyphs(font, strData, 32, displayBuf, SCREEN_WIDTH, SCREEN_HEIGHT, x * font.glyphWidth, y * font.height, font.glyphWidth, font.width, ROP_COPYINVERTED))
+                for (int i = 0; (i < strData.length); i++)
+                    bitBlt(font.glyphs, font.width * font.glyphCount, font.height, font.width * (strData[i]-32), 0, (x + i) * font.glyphWidth, y * font.height, font.width, font.height, ROP_COPYINVERTED);
         } else
             drawString(str, x, y);
     }
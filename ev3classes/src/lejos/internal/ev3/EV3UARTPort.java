@@ -2,6 +2,7 @@ package lejos.internal.ev3;
 
 import java.io.IOError;
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
@@ -44,6 +45,7 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
     protected static final int DEV_RAW_SIZE1 = 9600;
     protected static final int DEV_RAW_SIZE2 = 32;
     protected static final int DEV_ACTUAL_OFF = 42592;
+    protected static final int DEV_RAW_ENTRIES = DEV_RAW_SIZE1/DEV_RAW_SIZE2;
     
     protected static final int UART_CONNECT = 0xc0037507;
     protected static final int UART_DISCONNECT = 0xc0037508;
@@ -175,6 +177,9 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
     protected byte[] rawInput;
     protected byte[] rawOutput;
     protected byte[] cmd = new byte[3];
+    // Per port views of the RAW data, these allow bulk reads without allocation
+    protected ByteBuffer rawBytes;
+    protected ShortBuffer rawShorts;
 
     /**
      * return the current status of the port
@@ -425,6 +430,14 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
             return false;
         // clear mode data cache
         modeCnt = 0;
+        // create views of the data area for this port, note that duplicate
+        // does not preserve the byte order so we must set it again.
+        ByteBuffer b = raw.duplicate();
+        b.order(raw.order());
+        b.position(port*DEV_RAW_SIZE1);
+        b.limit(port*DEV_RAW_SIZE1 + DEV_RAW_SIZE1);
+        rawBytes = b.slice().order(raw.order());
+        rawShorts = rawBytes.asShortBuffer();
         return true;
     }
 
@@ -472,6 +485,18 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
         return ret;
     }
 
+    /**
+     * The RAW data is held in a circular buffer with 32 bytes of data per entry
+     * and 300 entries per port. This method returns the index of the entry
+     * holding the latest data value read into the buffer. The index is written
+     * by the kernel module as a single short so no locking is required to read it.
+     * @return index of the current data entry
+     */
+    private int getDataSlot()
+    {
+        return actual.getShort(port*2);
+    }
+
     /**
      * The RAW data is held in a circular buffer with 32 bytes of data per entry
      * and 300 entries per port. This method calculates the byte offset of the
@@ -480,11 +505,7 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
      */
     private int calcRawOffset()
     {
-        synchronized (actual)
-        {
-            int ret = port*DEV_RAW_SIZE1 + actual.getShort(port*2)*DEV_RAW_SIZE2;
-            return ret;
-        }
+        return port*DEV_RAW_SIZE1 + getDataSlot()*DEV_RAW_SIZE2;
     }
     
 
@@ -545,10 +566,7 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
      */
     public void getBytes(byte [] vals, int offset, int len)
     {
-        checkSensor();
-        int loc = calcRawOffset();
-        for(int i = 0; i < len; i++)
-            vals[i+offset] = raw.get(loc + i);
+        readBytes(vals, offset, len);
     }
 
     /**
@@ -568,11 +586,49 @@ public class EV3UARTPort extends EV3IOPort implements UARTPort
      * @param len number of shorts to read
      */
     public void getShorts(short [] vals, int offset, int len)
+    {
+        readShorts(vals, offset, len);
+    }
+
+    /** {@inheritDoc}
+     */    
+    @Override
+    public int getDataSequence()
+    {
+        return getDataSlot();
+    }
+
+    /** {@inheritDoc}
+     */    
+    @Override
+    public synchronized int readBytes(byte [] vals, int offset, int len)
+    {
+        checkSensor();
+        int slot;
+        // If the device adds a new entry while we are copying, read it again.
+        // A copy takes far less time than the device takes to deliver data, so
+        // this does not repeat for long.
+        do {
+            slot = getDataSlot();
+            rawBytes.position(slot*DEV_RAW_SIZE2);
+            rawBytes.get(vals, offset, len);
+        } while (slot != getDataSlot());
+        return slot;
+    }
+
+    /** {@inheritDoc}
+     */    
+    @Override
+    public synchronized int readShorts(short [] vals, int offset, int len)
     {
         checkSensor();
-        int loc = calcRawOffset();
-        for(int i = 0; i < len; i++)
-            vals[i+offset] = raw.getShort(loc + i*2);
+        int slot;
+        do {
+            slot = getDataSlot();
+            rawShorts.position(slot*DEV_RAW_SIZE2/2);
+            rawShorts.get(vals, offset, len);
+        } while (slot != getDataSlot());
+        return slot;
     }
 
     /**
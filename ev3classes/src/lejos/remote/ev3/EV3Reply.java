@@ -21,5 +21,8 @@ public class EV3Reply implements Serializable {
 	public double doubleReply;
 	
 	public Exception e;
+	
+	/** The id of the request this is a reply to */
+	public int id;
 
 }
@@ -161,7 +161,9 @@ public class EV3Request implements Serializable {
 		UART_RAW_READ,
 		UART_RAW_WRITE,
 		UART_SET_BIT_RATE,
-		UART_WRITE
+		UART_WRITE,
+		SUBSCRIBE_SAMPLES,
+		UNSUBSCRIBE_SAMPLES
 	}
 	
 	public Request request;
@@ -189,5 +191,8 @@ public class EV3Request implements Serializable {
 	public double doubleValue, doubleValue2;
 	
 	public float floatValue;
+	
+	/** Identifies the request when several are in flight, 0 if not used */
+	public int id;
 
 }
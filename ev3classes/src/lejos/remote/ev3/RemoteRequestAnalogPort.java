@@ -2,6 +2,7 @@ package lejos.remote.ev3;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.Future;
 
 import lejos.hardware.port.AnalogPort;
 
@@ -89,6 +90,36 @@ public class RemoteRequestAnalogPort extends RemoteRequestIOPort implements Anal
 		return sendRequest(req, true).floatReply;
 	}
 
+	/**
+	 * Read the pin 6 voltage without waiting for the reply.
+	 * @return the future voltage
+	 */
+	public Future<Float> getPin6Async() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.GET_PIN_6;
+		return sendAsync(req, new RemoteRequestFuture<Float>() {
+			@Override
+			protected Float getValue(EV3Reply reply) {
+				return reply.floatReply;
+			}
+		});
+	}
+
+	/**
+	 * Read the pin 1 voltage without waiting for the reply.
+	 * @return the future voltage
+	 */
+	public Future<Float> getPin1Async() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.GET_PIN_1;
+		return sendAsync(req, new RemoteRequestFuture<Float>() {
+			@Override
+			protected Float getValue(EV3Reply reply) {
+				return reply.floatReply;
+			}
+		});
+	}
+
 	@Override
 	public void getFloats(float[] vals, int offset, int length) {
 		EV3Request req = new EV3Request();
@@ -97,6 +128,12 @@ public class RemoteRequestAnalogPort extends RemoteRequestIOPort implements Anal
 		for(int i=0;i<vals.length;i++) vals[offset+i] = reply.floats[i];	
 	}
 	
+	private <T> Future<T> sendAsync(EV3Request req, RemoteRequestFuture<T> future) {
+		req.replyRequired = true;
+		req.intValue = portNum;
+		return RemoteRequestPipeline.send(is, os, req, future);
+	}
+	
 	private EV3Reply sendRequest(EV3Request req, boolean replyRequired) {
 		EV3Reply reply = null;
 		req.replyRequired = replyRequired;
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
@@ -31,16 +32,57 @@ public class RemoteRequestEV3 implements EV3, Serializable {
 	private ObjectInputStream is;
 	private ObjectOutputStream os;
 	private Socket socket;
+	private RemoteRequestPipeline pipeline;
 	private ArrayList<RemoteRequestPort> ports = new ArrayList<RemoteRequestPort>();
 	private RemoteRequestKeys keys;
 	
 	private static final int PORT = 8002;
 	
+	/**
+	 * Connect to the EV3 using the binary request format, falling back to
+	 * standard serialization if the EV3 menu does not support it.
+	 * @param host the name or IP address of the EV3
+	 * @throws IOException
+	 */
 	public RemoteRequestEV3(String host) throws IOException {
-		socket = new Socket(host,PORT);
-		socket.setTcpNoDelay(true);
-		is = new ObjectInputStream(socket.getInputStream());
-		os = new ObjectOutputStream(socket.getOutputStream());
+		this(host, true);
+	}
+	
+	/**
+	 * Connect to the EV3.
+	 * @param host the name or IP address of the EV3
+	 * @param binary true to use the binary request format if possible, false
+	 * to always use standard serialization
+	 * @throws IOException
+	 */
+	public RemoteRequestEV3(String host, boolean binary) throws IOException {
+		if (binary) {
+			socket = new Socket(host,PORT);
+			socket.setTcpNoDelay(true);
+			try {
+				RemoteRequestOutputStream out = new RemoteRequestOutputStream(socket.getOutputStream());
+				RemoteRequestInputStream in = new RemoteRequestInputStream(socket.getInputStream());
+				if (in.getVersion() >= 2) {
+					// Requests can be pipelined, the proxies share the pipeline streams
+					pipeline = new RemoteRequestPipeline(in, out);
+					os = pipeline.getOutputStream();
+					is = pipeline.getInputStream();
+				} else {
+					os = out;
+					is = in;
+				}
+			} catch (StreamCorruptedException e) {
+				// Older menus only support standard serialization
+				socket.close();
+				binary = false;
+			}
+		}
+		if (!binary) {
+			socket = new Socket(host,PORT);
+			socket.setTcpNoDelay(true);
+			is = new ObjectInputStream(socket.getInputStream());
+			os = new ObjectOutputStream(socket.getOutputStream());
+		}
 		createPorts();
 		keys = new RemoteRequestKeys(is, os);
 	}
@@ -167,6 +209,15 @@ public class RemoteRequestEV3 implements EV3, Serializable {
 		return new RemoteRequestPilot(is, os, leftMotor, rightMotor, wheelDiameter, trackWidth);
 	}
 	
+	/**
+	 * Return the pipeline used to send requests, which allows several
+	 * requests to be in flight at once.
+	 * @return the pipeline, or null if the EV3 menu does not support pipelining
+	 */
+	public RemoteRequestPipeline getPipeline() {
+		return pipeline;
+	}
+	
 	public void disConnect() {
 		try {
 		    os.flush();
@@ -0,0 +1,110 @@
+package lejos.remote.ev3;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a remote request that may still be in progress. The future is
+ * completed when the reply to the request arrives. Subclasses override
+ * {@link #getValue(EV3Reply)} to extract the result of the request from the reply.
+ * @param <T> the type of the result
+ */
+public class RemoteRequestFuture<T> implements Future<T> {
+	private EV3Reply reply;
+	private Throwable failure;
+	private boolean done;
+	
+	/**
+	 * Extract the result from the reply. The default implementation returns
+	 * the reply itself.
+	 * @param reply the reply to the request
+	 * @return the result of the request
+	 */
+	@SuppressWarnings("unchecked")
+	protected T getValue(EV3Reply reply) {
+		return (T) reply;
+	}
+	
+	/**
+	 * Complete the request with the reply from the EV3.
+	 * @param reply the reply, or null if the request does not have one
+	 */
+	synchronized void complete(EV3Reply reply) {
+		if (done) return;
+		this.reply = reply;
+		done = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Complete the request with an error, normally because the connection has failed.
+	 * @param failure the cause of the failure
+	 */
+	synchronized void fail(Throwable failure) {
+		if (done) return;
+		this.failure = failure;
+		done = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Wait for the reply and return it without checking for a remote exception.
+	 * @return the reply
+	 * @throws RemoteRequestException if the request failed
+	 */
+	synchronized EV3Reply getReply() {
+		try {
+			while (!done) wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteRequestException(e);
+		}
+		if (failure != null) throw new RemoteRequestException(failure);
+		return reply;
+	}
+	
+	/**
+	 * Requests cannot be withdrawn once they have been sent
+	 * @return false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (!done) wait();
+		return result();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = end - System.nanoTime();
+			if (remaining <= 0) throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return result();
+	}
+	
+	private T result() throws ExecutionException {
+		if (failure != null) throw new ExecutionException(failure);
+		if (reply != null && reply.e != null) throw new ExecutionException(reply.e);
+		return getValue(reply);
+	}
+}
@@ -0,0 +1,190 @@
+package lejos.remote.ev3;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import lejos.hardware.lcd.Image;
+
+/**
+ * Object stream that reads remote requests and replies sent by a
+ * {@link RemoteRequestOutputStream} using the compact binary format.
+ */
+public class RemoteRequestInputStream extends ObjectInputStream implements RemoteRequestProtocol {
+	private static final EV3Request.Request[] REQUESTS = EV3Request.Request.values();
+	private static final int DETECT_TIMEOUT = 250;
+	
+	private final DataInputStream in;
+	private final int[] ints = new int[11];
+	private final int version;
+	
+	/**
+	 * Create the stream and check the stream header.
+	 * @param is the stream to read from
+	 * @throws IOException if the stream is not a binary remote request stream
+	 */
+	public RemoteRequestInputStream(InputStream is) throws IOException {
+		super();
+		in = new DataInputStream(is instanceof BufferedInputStream ? is : new BufferedInputStream(is, BUFFER_SIZE));
+		if (in.readInt() != MAGIC)
+			throw new StreamCorruptedException("Not a remote request stream");
+		version = in.readInt();
+		if (version < 1 || version > VERSION)
+			throw new StreamCorruptedException("Unsupported remote request version " + version);
+	}
+	
+	/**
+	 * Return the version of the format used by the other end of the connection.
+	 * Versions before 2 do not support request ids, so requests cannot be pipelined.
+	 * @return the version number sent in the stream header
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Determine whether the client on the other end of a newly accepted connection
+	 * is using the binary format. Binary clients send the stream header immediately,
+	 * clients using standard serialization wait for the server to send its header first.
+	 * @param s the connected socket
+	 * @param is the buffered input stream of the socket, nothing is consumed from it
+	 * @return true if the client is using the binary format
+	 * @throws IOException
+	 */
+	public static boolean isBinary(Socket s, BufferedInputStream is) throws IOException {
+		int timeout = s.getSoTimeout();
+		s.setSoTimeout(DETECT_TIMEOUT);
+		is.mark(1);
+		try {
+			return is.read() == (MAGIC >>> 24);
+		} catch (SocketTimeoutException e) {
+			return false;
+		} finally {
+			is.reset();
+			s.setSoTimeout(timeout);
+		}
+	}
+	
+	@Override
+	protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_REQUEST:
+			return readRequest();
+		case TYPE_REPLY:
+			return readReply();
+		case TYPE_OBJECT:
+			return readSerialized();
+		default:
+			throw new StreamCorruptedException("Invalid message type " + type);
+		}
+	}
+	
+	private EV3Request readRequest() throws IOException {
+		EV3Request req = new EV3Request();
+		int ordinal = in.readShort();
+		if (ordinal >= REQUESTS.length)
+			throw new StreamCorruptedException("Invalid request " + ordinal);
+		req.request = (ordinal < 0 ? null : REQUESTS[ordinal]);
+		int mask = in.readInt();
+		req.replyRequired = (mask & RQ_REPLY_REQUIRED) != 0;
+		req.flag = (mask & RQ_FLAG) != 0;
+		for(int i=0;i<ints.length;i++) ints[i] = ((mask & (RQ_INT << i)) != 0 ? in.readInt() : 0);
+		req.intValue = ints[0];
+		req.intValue2 = ints[1];
+		req.intValue3 = ints[2];
+		req.intValue4 = ints[3];
+		req.intValue5 = ints[4];
+		req.intValue6 = ints[5];
+		req.intValue7 = ints[6];
+		req.intValue8 = ints[7];
+		req.intValue9 = ints[8];
+		req.intValue10 = ints[9];
+		req.intValue11 = ints[10];
+		if ((mask & RQ_FILE) != 0) req.file = new File(in.readUTF());
+		if ((mask & RQ_BYTE_DATA) != 0) req.byteData = readBytes();
+		if ((mask & RQ_BYTE_DATA2) != 0) req.byteData2 = readBytes();
+		if ((mask & RQ_INT_DATA) != 0) {
+			req.intData = new int[in.readInt()];
+			for(int i=0;i<req.intData.length;i++) req.intData[i] = in.readInt();
+		}
+		if ((mask & RQ_STR) != 0) req.str = in.readUTF();
+		if ((mask & RQ_STR2) != 0) req.str2 = in.readUTF();
+		if ((mask & RQ_STR3) != 0) req.str3 = in.readUTF();
+		if ((mask & RQ_STR4) != 0) req.str4 = in.readUTF();
+		if ((mask & RQ_CH) != 0) req.ch = in.readChar();
+		if ((mask & RQ_CHARS) != 0) {
+			req.chars = new char[in.readInt()];
+			for(int i=0;i<req.chars.length;i++) req.chars[i] = in.readChar();
+		}
+		if ((mask & RQ_IMAGE) != 0) {
+			int width = in.readInt();
+			int height = in.readInt();
+			req.image = new Image(width, height, readBytes());
+		}
+		if ((mask & RQ_DOUBLE) != 0) req.doubleValue = in.readDouble();
+		if ((mask & RQ_DOUBLE2) != 0) req.doubleValue2 = in.readDouble();
+		if ((mask & RQ_FLOAT) != 0) req.floatValue = in.readFloat();
+		if ((mask & RQ_ID) != 0) req.id = in.readInt();
+		return req;
+	}
+	
+	private EV3Reply readReply() throws IOException, ClassNotFoundException {
+		EV3Reply reply = new EV3Reply();
+		int mask = in.readInt();
+		reply.result = (mask & RP_RESULT) != 0;
+		if ((mask & RP_NAMES) != 0) {
+			reply.names = new String[in.readInt()];
+			for(int i=0;i<reply.names.length;i++) reply.names[i] = in.readUTF();
+		}
+		if ((mask & RP_VALUE) != 0) reply.value = in.readUTF();
+		if ((mask & RP_REPLY) != 0) reply.reply = in.readInt();
+		if ((mask & RP_FLOAT) != 0) reply.floatReply = in.readFloat();
+		if ((mask & RP_CONTENTS) != 0) reply.contents = readBytes();
+		if ((mask & RP_NAME) != 0) reply.name = in.readUTF();
+		if ((mask & RP_FLOATS) != 0) {
+			reply.floats = new float[in.readInt()];
+			for(int i=0;i<reply.floats.length;i++) reply.floats[i] = in.readFloat();
+		}
+		if ((mask & RP_SHORTS) != 0) {
+			reply.shorts = new short[in.readInt()];
+			for(int i=0;i<reply.shorts.length;i++) reply.shorts[i] = in.readShort();
+		}
+		if ((mask & RP_DOUBLE) != 0) reply.doubleReply = in.readDouble();
+		if ((mask & RP_EXCEPTION) != 0) reply.e = (Exception) readSerialized();
+		if ((mask & RP_ID) != 0) reply.id = in.readInt();
+		return reply;
+	}
+	
+	private byte[] readBytes() throws IOException {
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return data;
+	}
+	
+	private Object readSerialized() throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+		try {
+			return ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return in.available();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -2,6 +2,7 @@ package lejos.remote.ev3;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.Future;
 
 import lejos.hardware.motor.MotorRegulator;
 import lejos.hardware.port.TachoMotorPort;
@@ -56,6 +57,21 @@ public class RemoteRequestMotorPort extends RemoteRequestIOPort implements Tacho
 		return sendRequest(req, true).reply;
 	}
 
+	/**
+	 * Request the tacho count without waiting for the reply.
+	 * @return the future tacho count
+	 */
+	public Future<Integer> getTachoCountAsync() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.GET_TACHO_COUNT;
+		return sendAsync(req, new RemoteRequestFuture<Integer>() {
+			@Override
+			protected Integer getValue(EV3Reply reply) {
+				return reply.reply;
+			}
+		});
+	}
+
 	@Override
 	public void resetTachoCount() {
 		EV3Request req = new EV3Request();
@@ -68,6 +84,12 @@ public class RemoteRequestMotorPort extends RemoteRequestIOPort implements Tacho
 		throw(new UnsupportedOperationException("Remote regulators are not supported"));
 	}
 	
+	private <T> Future<T> sendAsync(EV3Request req, RemoteRequestFuture<T> future) {
+		req.replyRequired = true;
+		req.intValue = portNum;
+		return RemoteRequestPipeline.send(is, os, req, future);
+	}
+	
 	private EV3Reply sendRequest(EV3Request req, boolean replyRequired) {
 		EV3Reply reply = null;
 		req.replyRequired = replyRequired;
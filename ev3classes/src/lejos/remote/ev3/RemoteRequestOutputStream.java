@@ -0,0 +1,188 @@
+package lejos.remote.ev3;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import lejos.hardware.lcd.Image;
+
+/**
+ * Object stream that sends remote requests and replies using a compact binary
+ * format rather than Java serialization. It can be used anywhere an ObjectOutputStream
+ * is used by the remote request classes and must be paired with a
+ * {@link RemoteRequestInputStream}.<p>
+ * The stream starts with MAGIC and VERSION. Each message is a type byte followed by the
+ * message body. An {@link EV3Request} is sent as the request ordinal (a short), a mask
+ * with a bit set for each field that does not have its default value (an int) and then
+ * the value of each of those fields in a fixed order. {@link EV3Reply} objects use the
+ * same scheme. Any other object is sent using standard serialization, preceded by its
+ * length.
+ */
+public class RemoteRequestOutputStream extends ObjectOutputStream implements RemoteRequestProtocol {
+	private final DataOutputStream out;
+	private final int[] ints = new int[11];
+	
+	/**
+	 * Create the stream and send the stream header.
+	 * @param os the stream to write to
+	 * @throws IOException
+	 */
+	public RemoteRequestOutputStream(OutputStream os) throws IOException {
+		super();
+		out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+	}
+	
+	@Override
+	protected synchronized void writeObjectOverride(Object obj) throws IOException {
+		if (obj instanceof EV3Request) {
+			out.writeByte(TYPE_REQUEST);
+			writeRequest((EV3Request) obj);
+		} else if (obj instanceof EV3Reply) {
+			out.writeByte(TYPE_REPLY);
+			writeReply((EV3Reply) obj);
+		} else {
+			out.writeByte(TYPE_OBJECT);
+			writeSerialized(obj);
+		}
+		out.flush();
+	}
+	
+	private void writeRequest(EV3Request req) throws IOException {
+		ints[0] = req.intValue;
+		ints[1] = req.intValue2;
+		ints[2] = req.intValue3;
+		ints[3] = req.intValue4;
+		ints[4] = req.intValue5;
+		ints[5] = req.intValue6;
+		ints[6] = req.intValue7;
+		ints[7] = req.intValue8;
+		ints[8] = req.intValue9;
+		ints[9] = req.intValue10;
+		ints[10] = req.intValue11;
+		int mask = 0;
+		if (req.replyRequired) mask |= RQ_REPLY_REQUIRED;
+		if (req.flag) mask |= RQ_FLAG;
+		for(int i=0;i<ints.length;i++) if (ints[i] != 0) mask |= RQ_INT << i;
+		if (req.file != null) mask |= RQ_FILE;
+		if (req.byteData != null) mask |= RQ_BYTE_DATA;
+		if (req.byteData2 != null) mask |= RQ_BYTE_DATA2;
+		if (req.intData != null) mask |= RQ_INT_DATA;
+		if (req.str != null) mask |= RQ_STR;
+		if (req.str2 != null) mask |= RQ_STR2;
+		if (req.str3 != null) mask |= RQ_STR3;
+		if (req.str4 != null) mask |= RQ_STR4;
+		if (req.ch != 0) mask |= RQ_CH;
+		if (req.chars != null) mask |= RQ_CHARS;
+		if (req.image != null) mask |= RQ_IMAGE;
+		if (Double.doubleToRawLongBits(req.doubleValue) != 0) mask |= RQ_DOUBLE;
+		if (Double.doubleToRawLongBits(req.doubleValue2) != 0) mask |= RQ_DOUBLE2;
+		if (Float.floatToRawIntBits(req.floatValue) != 0) mask |= RQ_FLOAT;
+		if (req.id != 0) mask |= RQ_ID;
+		
+		out.writeShort(req.request == null ? -1 : req.request.ordinal());
+		out.writeInt(mask);
+		for(int i=0;i<ints.length;i++) if ((mask & (RQ_INT << i)) != 0) out.writeInt(ints[i]);
+		if (req.file != null) out.writeUTF(req.file.getPath());
+		if (req.byteData != null) writeBytes(req.byteData);
+		if (req.byteData2 != null) writeBytes(req.byteData2);
+		if (req.intData != null) {
+			out.writeInt(req.intData.length);
+			for(int i=0;i<req.intData.length;i++) out.writeInt(req.intData[i]);
+		}
+		if (req.str != null) out.writeUTF(req.str);
+		if (req.str2 != null) out.writeUTF(req.str2);
+		if (req.str3 != null) out.writeUTF(req.str3);
+		if (req.str4 != null) out.writeUTF(req.str4);
+		if (req.ch != 0) out.writeChar(req.ch);
+		if (req.chars != null) {
+			out.writeInt(req.chars.length);
+			for(int i=0;i<req.chars.length;i++) out.writeChar(req.chars[i]);
+		}
+		if (req.image != null) {
+			Image image = req.image;
+			out.writeInt(image.getWidth());
+			out.writeInt(image.getHeight());
+			writeBytes(image.getData());
+		}
+		if ((mask & RQ_DOUBLE) != 0) out.writeDouble(req.doubleValue);
+		if ((mask & RQ_DOUBLE2) != 0) out.writeDouble(req.doubleValue2);
+		if ((mask & RQ_FLOAT) != 0) out.writeFloat(req.floatValue);
+		if (req.id != 0) out.writeInt(req.id);
+	}
+	
+	private void writeReply(EV3Reply reply) throws IOException {
+		int mask = 0;
+		if (reply.result) mask |= RP_RESULT;
+		if (reply.names != null) mask |= RP_NAMES;
+		if (reply.value != null) mask |= RP_VALUE;
+		if (reply.reply != 0) mask |= RP_REPLY;
+		if (Float.floatToRawIntBits(reply.floatReply) != 0) mask |= RP_FLOAT;
+		if (reply.contents != null) mask |= RP_CONTENTS;
+		if (reply.name != null) mask |= RP_NAME;
+		if (reply.floats != null) mask |= RP_FLOATS;
+		if (reply.shorts != null) mask |= RP_SHORTS;
+		if (Double.doubleToRawLongBits(reply.doubleReply) != 0) mask |= RP_DOUBLE;
+		if (reply.e != null) mask |= RP_EXCEPTION;
+		if (reply.id != 0) mask |= RP_ID;
+		
+		out.writeInt(mask);
+		if (reply.names != null) {
+			out.writeInt(reply.names.length);
+			for(int i=0;i<reply.names.length;i++) out.writeUTF(reply.names[i]);
+		}
+		if (reply.value != null) out.writeUTF(reply.value);
+		if (reply.reply != 0) out.writeInt(reply.reply);
+		if ((mask & RP_FLOAT) != 0) out.writeFloat(reply.floatReply);
+		if (reply.contents != null) writeBytes(reply.contents);
+		if (reply.name != null) out.writeUTF(reply.name);
+		if (reply.floats != null) {
+			out.writeInt(reply.floats.length);
+			for(int i=0;i<reply.floats.length;i++) out.writeFloat(reply.floats[i]);
+		}
+		if (reply.shorts != null) {
+			out.writeInt(reply.shorts.length);
+			for(int i=0;i<reply.shorts.length;i++) out.writeShort(reply.shorts[i]);
+		}
+		if ((mask & RP_DOUBLE) != 0) out.writeDouble(reply.doubleReply);
+		// Exceptions are rare, so use standard serialization to preserve them
+		if (reply.e != null) writeSerialized(reply.e);
+		if (reply.id != 0) out.writeInt(reply.id);
+	}
+	
+	private void writeBytes(byte[] data) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	}
+	
+	private void writeSerialized(Object obj) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(buf);
+		oos.writeObject(obj);
+		oos.close();
+		out.writeInt(buf.size());
+		buf.writeTo(out);
+	}
+	
+	/**
+	 * The binary format does not share object references, so there is nothing to reset.
+	 */
+	@Override
+	public void reset() {
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,288 @@
+package lejos.remote.ev3;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Allows several remote requests to be in flight on a single connection. Each
+ * request is given an id which the EV3 copies into its reply, a reader thread
+ * matches the replies with the requests and completes the corresponding
+ * {@link RemoteRequestFuture}. The EV3 processes requests for different motor
+ * and sensor ports concurrently, so replies may arrive in a different order
+ * to the requests.<p>
+ * The pipeline also provides object streams that can be used by the remote
+ * proxy classes in place of the streams of the connection. A thread that
+ * writes a request to the output stream and then reads from the input stream
+ * receives the reply to its own request, so the proxies can be used by
+ * several threads at the same time.<p>
+ * A request can also start a stream of replies, for example a sample
+ * subscription. The replies are passed to a {@link Listener} until the
+ * stream is removed.
+ */
+public class RemoteRequestPipeline {
+	/** The maximum number of requests waiting for a reply */
+	public static final int MAX_IN_FLIGHT = 32;
+	
+	private final RemoteRequestInputStream in;
+	private final RemoteRequestOutputStream out;
+	private final HashMap<Integer, RemoteRequestFuture<?>> pending = new HashMap<Integer, RemoteRequestFuture<?>>();
+	private final HashMap<Integer, Listener> streams = new HashMap<Integer, Listener>();
+	private final ThreadLocal<RemoteRequestFuture<EV3Reply>> last = new ThreadLocal<RemoteRequestFuture<EV3Reply>>();
+	private final ObjectInputStream is;
+	private final ObjectOutputStream os;
+	private int nextId = 1;
+	private Throwable failure;
+	
+	/**
+	 * Create the pipeline and start the reader thread.
+	 * @param in the input stream of the connection
+	 * @param out the output stream of the connection
+	 * @throws IOException
+	 */
+	public RemoteRequestPipeline(RemoteRequestInputStream in, RemoteRequestOutputStream out) throws IOException {
+		this.in = in;
+		this.out = out;
+		is = new Input();
+		os = new Output();
+		Thread reader = new Reader();
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	/**
+	 * Test whether a stream supports pipelining and if so return the pipeline.
+	 * @param os the output stream used by a remote proxy
+	 * @return the pipeline or null if the stream does not support it
+	 */
+	public static RemoteRequestPipeline getPipeline(ObjectOutputStream os) {
+		return (os instanceof Output ? ((Output) os).getPipeline() : null);
+	}
+	
+	/**
+	 * Send a request without waiting for the reply. If the stream does not support
+	 * pipelining the request is sent and the reply read before returning, so the
+	 * returned future is already complete.
+	 * @param is the input stream used by a remote proxy
+	 * @param os the output stream used by a remote proxy
+	 * @param req the request
+	 * @param future the future to complete with the reply
+	 * @return the future
+	 */
+	public static <T> RemoteRequestFuture<T> send(ObjectInputStream is, ObjectOutputStream os, EV3Request req, RemoteRequestFuture<T> future) {
+		RemoteRequestPipeline pipeline = getPipeline(os);
+		if (pipeline != null) return pipeline.send(req, future);
+		try {
+			synchronized (os) {
+				os.reset();
+				os.writeObject(req);
+				future.complete(req.replyRequired ? (EV3Reply) is.readObject() : null);
+			}
+		} catch (Exception e) {
+			future.fail(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Send a request without waiting for the reply. The call blocks if
+	 * there are already MAX_IN_FLIGHT requests waiting for a reply.
+	 * @param req the request
+	 * @param future the future to complete with the reply
+	 * @return the future
+	 */
+	public <T> RemoteRequestFuture<T> send(EV3Request req, RemoteRequestFuture<T> future) {
+		synchronized (pending) {
+			try {
+				while (failure == null && pending.size() >= MAX_IN_FLIGHT) pending.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.fail(e);
+				return future;
+			}
+			if (failure != null) {
+				future.fail(failure);
+				return future;
+			}
+			req.id = nextId++;
+			if (nextId <= 0) nextId = 1;
+			if (req.replyRequired) pending.put(req.id, future);
+		}
+		try {
+			out.writeObject(req);
+		} catch (IOException e) {
+			failAll(e);
+		}
+		if (!req.replyRequired) future.complete(null);
+		return future;
+	}
+	
+	/**
+	 * Send a request that the EV3 answers with a stream of replies. Each reply
+	 * is passed to the listener by the reader thread, so the listener must not block.
+	 * @param req the request
+	 * @param listener the listener for the replies
+	 * @return the id of the stream
+	 * @throws RemoteRequestException if the request cannot be sent
+	 */
+	public int subscribe(EV3Request req, Listener listener) {
+		synchronized (pending) {
+			if (failure != null) throw new RemoteRequestException(failure);
+			req.id = nextId++;
+			if (nextId <= 0) nextId = 1;
+			streams.put(req.id, listener);
+		}
+		req.replyRequired = false;
+		try {
+			out.writeObject(req);
+		} catch (IOException e) {
+			failAll(e);
+			throw new RemoteRequestException(e);
+		}
+		return req.id;
+	}
+	
+	/**
+	 * Stop passing replies for a stream to its listener.
+	 * @param id the id of the stream
+	 */
+	public void unsubscribe(int id) {
+		synchronized (pending) {
+			streams.remove(id);
+		}
+	}
+	
+	/**
+	 * Return the number of requests waiting for a reply
+	 * @return the number of requests
+	 */
+	public int getInFlight() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+	
+	/**
+	 * Return the input stream to be used by the remote proxies
+	 * @return the input stream
+	 */
+	public ObjectInputStream getInputStream() {
+		return is;
+	}
+	
+	/**
+	 * Return the output stream to be used by the remote proxies
+	 * @return the output stream
+	 */
+	public ObjectOutputStream getOutputStream() {
+		return os;
+	}
+	
+	private void failAll(Throwable e) {
+		ArrayList<RemoteRequestFuture<?>> failed;
+		ArrayList<Listener> listeners;
+		synchronized (pending) {
+			if (failure == null) failure = e;
+			failed = new ArrayList<RemoteRequestFuture<?>>(pending.values());
+			pending.clear();
+			listeners = new ArrayList<Listener>(streams.values());
+			streams.clear();
+			pending.notifyAll();
+		}
+		for(RemoteRequestFuture<?> f : failed) f.fail(failure);
+		for(Listener l : listeners) l.failed(failure);
+	}
+	
+	/**
+	 * Receives the replies of a stream started by {@link RemoteRequestPipeline#subscribe}.
+	 */
+	public interface Listener {
+		/**
+		 * Called by the reader thread for each reply in the stream.
+		 * @param reply the reply
+		 */
+		public void replyReceived(EV3Reply reply);
+		
+		/**
+		 * Called if the connection fails.
+		 * @param e the cause of the failure
+		 */
+		public void failed(Throwable e);
+	}
+	
+	private class Reader extends Thread {
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					EV3Reply reply = (EV3Reply) in.readObject();
+					RemoteRequestFuture<?> future;
+					Listener listener;
+					synchronized (pending) {
+						listener = streams.get(reply.id);
+						future = (listener == null ? pending.remove(reply.id) : null);
+						pending.notifyAll();
+					}
+					// Replies to requests that did not ask for one are ignored
+					if (listener != null) listener.replyReceived(reply);
+					else if (future != null) future.complete(reply);
+				}
+			} catch (Exception e) {
+				failAll(e);
+			}
+		}
+	}
+	
+	private class Input extends ObjectInputStream {
+		Input() throws IOException {
+			super();
+		}
+		
+		@Override
+		protected Object readObjectOverride() throws IOException {
+			RemoteRequestFuture<EV3Reply> future = last.get();
+			if (future == null) throw new IOException("No request is waiting for a reply");
+			last.set(null);
+			return future.getReply();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	private class Output extends ObjectOutputStream {
+		Output() throws IOException {
+			super();
+		}
+		
+		RemoteRequestPipeline getPipeline() {
+			return RemoteRequestPipeline.this;
+		}
+		
+		@Override
+		protected void writeObjectOverride(Object obj) throws IOException {
+			if (!(obj instanceof EV3Request)) throw new IOException("Only EV3 requests can be pipelined");
+			EV3Request req = (EV3Request) obj;
+			RemoteRequestFuture<EV3Reply> future = send(req, new RemoteRequestFuture<EV3Reply>());
+			last.set(req.replyRequired ? future : null);
+		}
+		
+		@Override
+		public void reset() {
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
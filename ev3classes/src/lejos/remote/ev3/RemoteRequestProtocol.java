@@ -0,0 +1,58 @@
+package lejos.remote.ev3;
+
+/**
+ * Constants used by the binary remote request format.<p>
+ * A binary stream starts with MAGIC and VERSION. Each message is a type byte followed
+ * by the message body. An {@link EV3Request} is sent as the request ordinal (a short),
+ * a mask with a bit set for each field that does not have its default value (an int)
+ * and then the value of each of those fields in a fixed order. {@link EV3Reply} objects
+ * use the same scheme. Any other object is sent using standard serialization, preceded
+ * by its length.
+ * @see RemoteRequestOutputStream
+ * @see RemoteRequestInputStream
+ */
+public interface RemoteRequestProtocol {
+	/** Value sent at the start of a binary stream */
+	public static final int MAGIC = 0x4c455652;
+	/** Version of the binary format, version 2 adds request ids and pipelining */
+	public static final int VERSION = 2;
+	
+	public static final byte TYPE_OBJECT = 0;
+	public static final byte TYPE_REQUEST = 1;
+	public static final byte TYPE_REPLY = 2;
+	public static final int BUFFER_SIZE = 1024;
+	
+	// Request field mask bits
+	public static final int RQ_REPLY_REQUIRED = 1 << 0;
+	public static final int RQ_FLAG = 1 << 1;
+	public static final int RQ_INT = 1 << 2; // 11 bits, one per intValue field
+	public static final int RQ_FILE = 1 << 13;
+	public static final int RQ_BYTE_DATA = 1 << 14;
+	public static final int RQ_BYTE_DATA2 = 1 << 15;
+	public static final int RQ_INT_DATA = 1 << 16;
+	public static final int RQ_STR = 1 << 17;
+	public static final int RQ_STR2 = 1 << 18;
+	public static final int RQ_STR3 = 1 << 19;
+	public static final int RQ_STR4 = 1 << 20;
+	public static final int RQ_CH = 1 << 21;
+	public static final int RQ_CHARS = 1 << 22;
+	public static final int RQ_IMAGE = 1 << 23;
+	public static final int RQ_DOUBLE = 1 << 24;
+	public static final int RQ_DOUBLE2 = 1 << 25;
+	public static final int RQ_FLOAT = 1 << 26;
+	public static final int RQ_ID = 1 << 27;
+	
+	// Reply field mask bits
+	public static final int RP_RESULT = 1 << 0;
+	public static final int RP_NAMES = 1 << 1;
+	public static final int RP_VALUE = 1 << 2;
+	public static final int RP_REPLY = 1 << 3;
+	public static final int RP_FLOAT = 1 << 4;
+	public static final int RP_CONTENTS = 1 << 5;
+	public static final int RP_NAME = 1 << 6;
+	public static final int RP_FLOATS = 1 << 7;
+	public static final int RP_SHORTS = 1 << 8;
+	public static final int RP_DOUBLE = 1 << 9;
+	public static final int RP_EXCEPTION = 1 << 10;
+	public static final int RP_ID = 1 << 11;
+}
@@ -2,6 +2,7 @@ package lejos.remote.ev3;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.Future;
 
 import lejos.robotics.RegulatedMotor;
 import lejos.robotics.RegulatedMotorListener;
@@ -72,6 +73,51 @@ public class RemoteRequestRegulatedMotor implements RegulatedMotor {
 		return sendRequest(req, true).reply;
 	}
 
+	/**
+	 * Request the tacho count without waiting for the reply.
+	 * @return the future tacho count
+	 */
+	public Future<Integer> getTachoCountAsync() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.MOTOR_GET_TACHO_COUNT;
+		return sendAsync(req, new RemoteRequestFuture<Integer>() {
+			@Override
+			protected Integer getValue(EV3Reply reply) {
+				return reply.reply;
+			}
+		});
+	}
+
+	/**
+	 * Request the rotation speed without waiting for the reply.
+	 * @return the future rotation speed
+	 */
+	public Future<Integer> getRotationSpeedAsync() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.MOTOR_GET_ROTATION_SPEED;
+		return sendAsync(req, new RemoteRequestFuture<Integer>() {
+			@Override
+			protected Integer getValue(EV3Reply reply) {
+				return reply.reply;
+			}
+		});
+	}
+
+	/**
+	 * Ask whether the motor is moving without waiting for the reply.
+	 * @return the future result
+	 */
+	public Future<Boolean> isMovingAsync() {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.MOTOR_IS_MOVING;
+		return sendAsync(req, new RemoteRequestFuture<Boolean>() {
+			@Override
+			protected Boolean getValue(EV3Reply reply) {
+				return reply.result;
+			}
+		});
+	}
+
 	@Override
 	public void resetTachoCount() {
 		EV3Request req = new EV3Request();
@@ -130,6 +176,44 @@ public class RemoteRequestRegulatedMotor implements RegulatedMotor {
 		sendRequest(req, true);
 	}
 
+	/**
+	 * Rotate by the specified angle. The method returns immediately, the
+	 * future completes when the rotation has finished. Unlike
+	 * rotate(angle, true) this allows the caller to wait for several
+	 * motors to complete their rotations.
+	 * @param angle the angle to rotate by
+	 * @return the future that completes when the motor stops
+	 */
+	public Future<Void> rotateAsync(int angle) {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.MOTOR_ROTATE;
+		req.intValue2 = angle;
+		return sendAsync(req, new RemoteRequestFuture<Void>() {
+			@Override
+			protected Void getValue(EV3Reply reply) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Rotate to the specified angle. The method returns immediately, the
+	 * future completes when the rotation has finished.
+	 * @param limitAngle the angle to rotate to
+	 * @return the future that completes when the motor stops
+	 */
+	public Future<Void> rotateToAsync(int limitAngle) {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.MOTOR_ROTATE_TO;
+		req.intValue2 = limitAngle;
+		return sendAsync(req, new RemoteRequestFuture<Void>() {
+			@Override
+			protected Void getValue(EV3Reply reply) {
+				return null;
+			}
+		});
+	}
+
 	@Override
 	public void rotateTo(int limitAngle) {
 		EV3Request req = new EV3Request();
@@ -207,6 +291,12 @@ public class RemoteRequestRegulatedMotor implements RegulatedMotor {
 		sendRequest(req, true);
 	}
 	
+	private <T> Future<T> sendAsync(EV3Request req, RemoteRequestFuture<T> future) {
+		req.replyRequired = true;
+		req.intValue = portNum;
+		return RemoteRequestPipeline.send(is, os, req, future);
+	}
+	
 	private EV3Reply sendRequest(EV3Request req, boolean replyRequired) {
 		EV3Reply reply = null;
 		req.replyRequired = replyRequired;
@@ -2,6 +2,7 @@ package lejos.remote.ev3;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.Future;
 
 import lejos.robotics.SampleProvider;
 
@@ -9,6 +10,8 @@ public class RemoteRequestSampleProvider implements SampleProvider {
 	private ObjectInputStream is;
 	private ObjectOutputStream os;
 	private int portNum;
+	private int streamId;
+	private RemoteRequestSampleStream stream;
 
 	public RemoteRequestSampleProvider(ObjectInputStream is,
 			ObjectOutputStream os, String portName, String sensorName, String modeName) {
@@ -45,8 +48,16 @@ public class RemoteRequestSampleProvider implements SampleProvider {
 		return sendRequest(req, true).reply;
 	}
 
+	/**
+	 * Fetch a sample. When the provider is subscribed this returns the most
+	 * recent sample streamed by the EV3 without making a request.
+	 */
 	@Override
 	public void fetchSample(float[] sample, int offset) {
+		if (stream != null) {
+			stream.fetchLatest(sample, offset);
+			return;
+		}
 		EV3Request req = new EV3Request();
 		req.request = EV3Request.Request.FETCH_SAMPLE;
 		req.replyRequired = true;
@@ -54,12 +65,100 @@ public class RemoteRequestSampleProvider implements SampleProvider {
 		for(int i=0;i<reply.floats.length;i++) sample[offset+i] = reply.floats[i];
 	}
 	
+	/**
+	 * Fetch a sample without waiting for the reply. The sample is copied into
+	 * the array when the result of the future is retrieved. Samples from
+	 * several sensors can be requested at once and are read concurrently by
+	 * the EV3.
+	 * @param sample the array to hold the sample
+	 * @param offset the offset of the sample in the array
+	 * @return the future sample, which is the array passed in
+	 */
+	public Future<float[]> fetchSampleAsync(final float[] sample, final int offset) {
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.FETCH_SAMPLE;
+		return sendAsync(req, new RemoteRequestFuture<float[]>() {
+			@Override
+			protected float[] getValue(EV3Reply reply) {
+				for(int i=0;i<reply.floats.length;i++) sample[offset+i] = reply.floats[i];
+				return sample;
+			}
+		});
+	}
+	
+	/**
+	 * Fetch the next sample streamed by the EV3. Samples are returned in order,
+	 * the call waits if no unread sample has arrived. When the provider is not
+	 * subscribed this is the same as fetchSample.
+	 * @param sample the array to hold the sample
+	 * @param offset the offset of the sample in the array
+	 */
+	public void fetchNextSample(float[] sample, int offset) {
+		if (stream != null) stream.fetchNext(sample, offset);
+		else fetchSample(sample, offset);
+	}
+	
+	/**
+	 * Ask the EV3 to sample the provider at a fixed rate and stream the samples
+	 * to this provider. While subscribed fetchSample returns the latest sample
+	 * received and fetchNextSample returns the samples in order. Requires a
+	 * connection that supports pipelining.
+	 * @param rate the sample rate in Hz
+	 * @param capacity the number of samples buffered
+	 * @return the buffer holding the streamed samples, which also provides
+	 * the dropped sample and latency counters
+	 */
+	public RemoteRequestSampleStream subscribe(float rate, int capacity) {
+		RemoteRequestPipeline pipeline = RemoteRequestPipeline.getPipeline(os);
+		if (pipeline == null) throw new UnsupportedOperationException("Sample streaming requires a pipelined connection");
+		if (rate <= 0) throw new IllegalArgumentException("Invalid rate");
+		unsubscribe();
+		RemoteRequestSampleStream s = new RemoteRequestSampleStream(sampleSize(), capacity);
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.SUBSCRIBE_SAMPLES;
+		req.intValue = portNum;
+		req.floatValue = rate;
+		streamId = pipeline.subscribe(req, s);
+		stream = s;
+		return s;
+	}
+	
+	/**
+	 * Stop streaming samples. Any samples still buffered are discarded.
+	 */
+	public void unsubscribe() {
+		if (stream == null) return;
+		EV3Request req = new EV3Request();
+		req.request = EV3Request.Request.UNSUBSCRIBE_SAMPLES;
+		stream = null;
+		try {
+			sendRequest(req, true);
+		} finally {
+			RemoteRequestPipeline.getPipeline(os).unsubscribe(streamId);
+		}
+	}
+	
+	/**
+	 * Return the buffer holding the streamed samples
+	 * @return the buffer, or null if the provider is not subscribed
+	 */
+	public RemoteRequestSampleStream getStream() {
+		return stream;
+	}
+	
 	public void close() {
+		unsubscribe();
 		EV3Request req = new EV3Request();
 		req.request = EV3Request.Request.CLOSE_SENSOR;
 		sendRequest(req, false);
 	}
 	
+	private <T> Future<T> sendAsync(EV3Request req, RemoteRequestFuture<T> future) {
+		req.replyRequired = true;
+		req.intValue = portNum;
+		return RemoteRequestPipeline.send(is, os, req, future);
+	}
+	
 	private EV3Reply sendRequest(EV3Request req, boolean replyRequired) {
 		EV3Reply reply = null;
 		req.replyRequired = replyRequired;
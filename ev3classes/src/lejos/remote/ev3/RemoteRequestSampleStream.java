@@ -0,0 +1,175 @@
+package lejos.remote.ev3;
+
+/**
+ * Ring buffer holding the samples streamed by the EV3 for a sample subscription.
+ * Samples are added by the reader thread of the {@link RemoteRequestPipeline} and
+ * removed either one at a time in order, or by taking the latest sample and
+ * discarding any older ones.<p>
+ * Each frame carries its sequence number and the time it was taken on the EV3.
+ * A gap in the sequence numbers, or a sample overwritten before it was read, is
+ * counted as a dropped sample. The clocks of the EV3 and the PC are not
+ * synchronized, so the latency is measured relative to the fastest frame seen:
+ * a latency of 0 means the frame took as long as the quickest frame to arrive.
+ */
+public class RemoteRequestSampleStream implements RemoteRequestPipeline.Listener {
+	private final int sampleSize;
+	private final int capacity;
+	private final float[] samples;
+	private final long[] timestamps;
+	private long written;
+	private long read;
+	private int lastSequence = -1;
+	private long minDelay = Long.MAX_VALUE;
+	private long latency;
+	private long maxLatency;
+	private int dropped;
+	private int received;
+	private long timestamp;
+	private Throwable failure;
+	
+	/**
+	 * Create a stream buffer.
+	 * @param sampleSize the number of values in each sample
+	 * @param capacity the number of samples held by the buffer
+	 */
+	public RemoteRequestSampleStream(int sampleSize, int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Invalid capacity");
+		this.sampleSize = sampleSize;
+		this.capacity = capacity;
+		samples = new float[sampleSize*capacity];
+		timestamps = new long[capacity];
+	}
+	
+	@Override
+	public synchronized void replyReceived(EV3Reply reply) {
+		if (reply.e != null) {
+			failed(reply.e);
+			return;
+		}
+		long now = System.nanoTime();
+		// The EV3 sends its nanosecond clock, which fits exactly in a double
+		long sent = (long) reply.doubleReply;
+		long delay = now - sent;
+		if (delay < minDelay) minDelay = delay;
+		latency = delay - minDelay;
+		if (latency > maxLatency) maxLatency = latency;
+		if (lastSequence >= 0 && reply.reply != lastSequence + 1) dropped += reply.reply - lastSequence - 1;
+		lastSequence = reply.reply;
+		received++;
+		
+		if (written - read >= capacity) {
+			// Overwrite the oldest unread sample
+			read++;
+			dropped++;
+		}
+		int slot = (int) (written % capacity);
+		int n = Math.min(sampleSize, reply.floats.length);
+		System.arraycopy(reply.floats, 0, samples, slot*sampleSize, n);
+		timestamps[slot] = sent;
+		written++;
+		notifyAll();
+	}
+	
+	@Override
+	public synchronized void failed(Throwable e) {
+		if (failure == null) failure = e;
+		notifyAll();
+	}
+	
+	/**
+	 * Copy the most recent sample, waiting for the first one to arrive if
+	 * necessary. Any older unread samples are discarded.
+	 * @param sample the array to hold the sample
+	 * @param offset the offset of the sample in the array
+	 */
+	public synchronized void fetchLatest(float[] sample, int offset) {
+		waitFor(1);
+		copy(written - 1, sample, offset);
+		read = written;
+	}
+	
+	/**
+	 * Copy the oldest unread sample, waiting for one to arrive if necessary.
+	 * @param sample the array to hold the sample
+	 * @param offset the offset of the sample in the array
+	 */
+	public synchronized void fetchNext(float[] sample, int offset) {
+		waitFor(read + 1);
+		copy(read, sample, offset);
+		read++;
+	}
+	
+	private void waitFor(long count) {
+		try {
+			while (written < count && failure == null) wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteRequestException(e);
+		}
+		if (written < count) throw new RemoteRequestException(failure);
+	}
+	
+	private void copy(long index, float[] sample, int offset) {
+		int slot = (int) (index % capacity);
+		System.arraycopy(samples, slot*sampleSize, sample, offset, sampleSize);
+		timestamp = timestamps[slot];
+	}
+	
+	/**
+	 * Return the number of samples that have arrived but not been read
+	 * @return the number of samples
+	 */
+	public synchronized int available() {
+		return (int) (written - read);
+	}
+	
+	/**
+	 * Return the EV3 time of the last sample fetched
+	 * @return the time in nanoseconds, as returned by System.nanoTime() on the EV3
+	 */
+	public synchronized long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Return the number of samples received
+	 * @return the number of samples
+	 */
+	public synchronized int getReceived() {
+		return received;
+	}
+	
+	/**
+	 * Return the number of samples lost, either because the EV3 could not send
+	 * them or because they were overwritten before being read.
+	 * @return the number of samples
+	 */
+	public synchronized int getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * Return the latency of the last sample received
+	 * @return the latency in nanoseconds, relative to the fastest sample
+	 */
+	public synchronized long getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Return the maximum latency seen
+	 * @return the latency in nanoseconds, relative to the fastest sample
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+	
+	/**
+	 * Reset the dropped sample count and maximum latency
+	 */
+	public synchronized void resetCounters() {
+		dropped = 0;
+		received = 0;
+		maxLatency = 0;
+	}
+}
@@ -9,6 +9,7 @@ public class RemoteRequestUARTPort extends RemoteRequestIOPort implements UARTPo
 	private ObjectInputStream is;
 	private ObjectOutputStream os;
 	private int portNum;
+	private int dataSequence;
 	
 	public RemoteRequestUARTPort(ObjectInputStream is, ObjectOutputStream os) {
 		this.is = is;
@@ -69,6 +70,27 @@ public class RemoteRequestUARTPort extends RemoteRequestIOPort implements UARTPo
 		for(int i=0;i<len;i++) vals[offset+i] = reply.shorts[i];	
 	}
 
+	/**
+	 * The remote device buffer is not visible, so every read is treated as
+	 * delivering a new data set.
+	 */
+	@Override
+	public int getDataSequence() {
+		return ++dataSequence;
+	}
+
+	@Override
+	public int readBytes(byte[] vals, int offset, int len) {
+		getBytes(vals, offset, len);
+		return getDataSequence();
+	}
+
+	@Override
+	public int readShorts(short[] vals, int offset, int len) {
+		getShorts(vals, offset, len);
+		return getDataSequence();
+	}
+
 	@Override
 	public String getModeName(int mode) {
 		EV3Request req = new EV3Request();
@@ -8,6 +8,7 @@ import lejos.hardware.port.UARTPort;
 public class RemoteUARTPort extends RemoteIOPort implements UARTPort {
 	protected RMIUARTPort rmi;
 	protected RMIEV3 rmiEV3;
+	private int dataSequence;
 	
 	public RemoteUARTPort(RMIEV3 rmiEV3) {
 		this.rmiEV3 = rmiEV3;
@@ -68,6 +69,27 @@ public class RemoteUARTPort extends RemoteIOPort implements UARTPort {
 		}
 	}
 
+	/**
+	 * The remote device buffer is not visible, so every read is treated as
+	 * delivering a new data set.
+	 */
+	@Override
+	public int getDataSequence() {
+		return ++dataSequence;
+	}
+
+	@Override
+	public int readBytes(byte[] vals, int offset, int len) {
+		getBytes(vals, offset, len);
+		return getDataSequence();
+	}
+
+	@Override
+	public int readShorts(short[] vals, int offset, int len) {
+		getShorts(vals, offset, len);
+		return getDataSequence();
+	}
+
 	@Override
 	public String getModeName(int mode) {
 		try {
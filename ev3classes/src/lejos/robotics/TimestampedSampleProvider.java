@@ -0,0 +1,27 @@
+package lejos.robotics;
+
+/** A sample provider that reports when each of its samples was acquired.<br>
+ * After a call to fetchSample the acquisition time and the sequence number of the
+ * sample that was returned can be obtained. Devices often deliver new data less
+ * often than they are read, the sequence number only changes when the sample is
+ * new data, so a consumer can tell a repeated sample from a fresh one.
+ * <br>
+ * The values describe the sample most recently fetched, they should be read by the
+ * same thread that fetched the sample.
+ */
+public interface TimestampedSampleProvider extends SampleProvider {
+
+	/** Returns the time at which the sample most recently fetched was acquired.
+	 * @return
+	 * the acquisition time in nanoseconds, using the same clock as System.nanoTime()
+	 */
+	public long getSampleTime();
+
+	/** Returns the sequence number of the sample most recently fetched.<br>
+	 * The sequence number increases by one for each new sample acquired from the device.
+	 * It wraps around and so should only be compared with a previous value.
+	 * @return
+	 * the sequence number of the sample
+	 */
+	public int getSampleSequence();
+}
@@ -0,0 +1,290 @@
+package lejos.robotics.filter;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import lejos.robotics.SampleProvider;
+import lejos.robotics.TimestampedSampleProvider;
+
+/**
+ * Runs a set of sample providers and filters as a graph that is updated once per tick.<p>
+ * Each provider added to the graph becomes a node with its own sample buffer. On each tick
+ * the nodes are updated in the order they were added, each fetches one sample from its
+ * provider into its buffer. A filter should take its samples from a node rather than
+ * directly from another provider, the node returns the sample held in its buffer, so a
+ * sensor is read once per tick however many filters use it, and a filter used by
+ * several others is only run once per tick. Filters that are not part of the graph can
+ * also take samples from a node.
+ * <pre>
+ *   FilterGraph graph = new FilterGraph();
+ *   FilterGraph.Node rate = graph.add(gyro.getRateMode(), "rate");
+ *   FilterGraph.Node smooth = graph.add(new LowPassFilter(rate, 0.05f), "smooth");
+ *   FilterGraph.Node angle = graph.add(new IntegrationFilter(smooth), "angle");
+ *   graph.start(200);
+ * </pre>
+ * The time taken to update each node is recorded. Nodes report the time of the data they
+ * hold, this is the time reported by the provider if it is a {@link TimestampedSampleProvider},
+ * otherwise the time of the node that a filter takes its samples from, otherwise the time of
+ * the tick.<p>
+ * The graph is updated with its lock held, a node also takes the lock to return its sample,
+ * so a sample is never read while the graph is being updated.
+ */
+public class FilterGraph {
+	protected final ArrayList<Node> nodes = new ArrayList<Node>();
+	protected Node[] order = new Node[0];
+	protected int ticks;
+	protected long tickTime;
+	protected long maxTickTime;
+	protected volatile int overruns;
+	protected volatile boolean running;
+	protected volatile long period;
+	protected Thread runner;
+
+	/**
+	 * A node of the graph. The node holds the sample most recently fetched from its provider.
+	 */
+	public class Node implements TimestampedSampleProvider {
+		protected final SampleProvider provider;
+		protected final String name;
+		protected final float[] buffer;
+		protected final TimestampedSampleProvider timestamped;
+		protected final Node input;
+		protected long time;
+		protected int sequence;
+		protected long lastNanos;
+		protected long maxNanos;
+		protected long totalNanos;
+		protected int updates;
+
+		protected Node(SampleProvider provider, String name, Node input) {
+			this.provider = provider;
+			this.name = name;
+			this.input = input;
+			buffer = new float[provider.sampleSize()];
+			timestamped = (provider instanceof TimestampedSampleProvider ? (TimestampedSampleProvider) provider : null);
+		}
+
+		protected void update(long now) {
+			provider.fetchSample(buffer, 0);
+			if (timestamped != null) {
+				time = timestamped.getSampleTime();
+				sequence = timestamped.getSampleSequence();
+			}
+			else {
+				time = (input != null ? input.time : now);
+				sequence++;
+			}
+			long end = System.nanoTime();
+			lastNanos = end - now;
+			if (lastNanos > maxNanos)
+				maxNanos = lastNanos;
+			totalNanos += lastNanos;
+			updates++;
+		}
+
+		@Override
+		public int sampleSize() {
+			return buffer.length;
+		}
+
+		/**
+		 * Returns the sample held by the node, the provider is not read.
+		 */
+		@Override
+		public void fetchSample(float[] sample, int offset) {
+			synchronized(FilterGraph.this) {
+				System.arraycopy(buffer, 0, sample, offset, buffer.length);
+			}
+		}
+
+		@Override
+		public long getSampleTime() {
+			return time;
+		}
+
+		@Override
+		public int getSampleSequence() {
+			return sequence;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public SampleProvider getProvider() {
+			return provider;
+		}
+
+		/**
+		 * @return the time taken by the most recent update of the node in ns
+		 */
+		public long getLastTime() {
+			return lastNanos;
+		}
+
+		/**
+		 * @return the longest time taken to update the node in ns
+		 */
+		public long getMaxTime() {
+			return maxNanos;
+		}
+
+		/**
+		 * @return the mean time taken to update the node in ns
+		 */
+		public long getMeanTime() {
+			return (updates == 0 ? 0 : totalNanos/updates);
+		}
+
+		@Override
+		public String toString() {
+			return name + " last " + lastNanos/1000 + "us mean " + getMeanTime()/1000 + "us max " + maxNanos/1000 + "us";
+		}
+	}
+
+	/**
+	 * Add a sample provider to the graph. If the provider is a filter its source must be
+	 * a node that has already been added, or a provider that is not part of the graph.
+	 * @param provider the provider
+	 * @param name the name of the node
+	 * @return the new node
+	 */
+	public synchronized Node add(SampleProvider provider, String name) {
+		if (provider instanceof Node)
+			throw new IllegalArgumentException("Node can not be added to a graph");
+		Node input = null;
+		if (provider instanceof AbstractFilter) {
+			SampleProvider source = ((AbstractFilter) provider).source;
+			if (source instanceof Node) {
+				input = (Node) source;
+				if (!nodes.contains(input))
+					throw new IllegalArgumentException("Source of " + name + " is not a node of this graph");
+			}
+		}
+		Node node = new Node(provider, name, input);
+		nodes.add(node);
+		order = nodes.toArray(new Node[nodes.size()]);
+		return node;
+	}
+
+	/**
+	 * Update every node of the graph once.
+	 */
+	public synchronized void tick() {
+		long start = System.nanoTime();
+		long now = start;
+		Node[] n = order;
+		for (int i = 0; i < n.length; i++) {
+			n[i].update(now);
+			now = System.nanoTime();
+		}
+		tickTime = now - start;
+		if (tickTime > maxTickTime)
+			maxTickTime = tickTime;
+		ticks++;
+	}
+
+	/**
+	 * Start a thread that updates the graph at a fixed rate.
+	 * @param rate the rate in Hz
+	 */
+	public synchronized void start(float rate) {
+		period = Math.max(1, (long) (1000000000L/rate));
+		if (runner != null)
+			return;
+		running = true;
+		runner = new Thread() {
+			@Override
+			public void run() {
+				long next = System.nanoTime();
+				while (running) {
+					long interval = period;
+					next += interval;
+					tick();
+					long delay = next - System.nanoTime();
+					if (-delay >= interval) {
+						// Skip the ticks that have been missed rather than trying to catch up
+						long missed = -delay/interval;
+						overruns += (int) missed;
+						next += missed*interval;
+					}
+					while (delay > 0 && running) {
+						LockSupport.parkNanos(delay);
+						delay = next - System.nanoTime();
+					}
+				}
+			}
+		};
+		runner.setDaemon(true);
+		runner.start();
+	}
+
+	/**
+	 * Stop the thread updating the graph.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(this) {
+			running = false;
+			t = runner;
+			runner = null;
+		}
+		if (t != null) {
+			LockSupport.unpark(t);
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the nodes in the order they are updated
+	 */
+	public synchronized Node[] getNodes() {
+		return order.clone();
+	}
+
+	/**
+	 * @return the number of ticks since the graph was created or the statistics reset
+	 */
+	public synchronized int getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * @return the time taken by the most recent tick in ns
+	 */
+	public synchronized long getTickTime() {
+		return tickTime;
+	}
+
+	/**
+	 * @return the longest time taken by a tick in ns
+	 */
+	public synchronized long getMaxTickTime() {
+		return maxTickTime;
+	}
+
+	/**
+	 * @return the number of ticks missed by the update thread because the graph took too long to update
+	 */
+	public int getOverrunCount() {
+		return overruns;
+	}
+
+	/**
+	 * Reset the timing statistics of the graph and of each node.
+	 */
+	public synchronized void resetStatistics() {
+		ticks = 0;
+		maxTickTime = 0;
+		overruns = 0;
+		for (int i = 0; i < order.length; i++) {
+			order[i].maxNanos = 0;
+			order[i].totalNanos = 0;
+			order[i].updates = 0;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package lejos.robotics.filter;
 
 import lejos.robotics.SampleProvider;
+import lejos.robotics.TimestampedSampleProvider;
 
 
 /**
@@ -9,18 +10,24 @@ import lejos.robotics.SampleProvider;
  * <li>convert gyro output (degrees/second) to azymuth (Degrees)</li>
  * <li>Acceleration to speed</li>
  * <li>Speed to position</li>
+ * If the source reports when its samples were acquired the time between samples is
+ * used, so a sample that is fetched more than once is only integrated once.
+ * Otherwise the time between calls to fetchSample is used.
  * @author Aswin
  *
  */
-public class IntegrationFilter extends AbstractFilter{
+public class IntegrationFilter extends AbstractFilter implements TimestampedSampleProvider {
 	private long lastTime=0;
+	private int sequence=0;
 	private final float[]	currentValue;
+	private final TimestampedSampleProvider timestamped;
 	private static final float NANO=(float) Math.pow(10,-9);
 	
 	
 	public IntegrationFilter(SampleProvider source) {
 		super(source);
 		currentValue=new float[sampleSize];
+		timestamped=(source instanceof TimestampedSampleProvider ? (TimestampedSampleProvider) source : null);
 	}
 	
 	
@@ -44,14 +51,40 @@ public class IntegrationFilter extends AbstractFilter{
 	 */
 	public void fetchSample(float sample[], int off) {
 		super.fetchSample(sample, off);
-		long now = System.nanoTime();
+		long now;
+		if (timestamped != null) {
+			now = timestamped.getSampleTime();
+			sequence = timestamped.getSampleSequence();
+		}
+		else {
+			now = System.nanoTime();
+			sequence++;
+		}
 		if (lastTime == 0)
 			lastTime = now;
 		double dt = (now - lastTime) * NANO;
 		lastTime = now;
 		for (int i = 0; i < sampleSize; i++) {
-			currentValue[i] += sample[i] * dt;
+			currentValue[i] += sample[i + off] * dt;
 			sample[i + off] = currentValue[i];
 		}
 	}
+
+	/**
+	 * Returns the time of the sample most recently integrated.
+	 * 
+	 * @see lejos.robotics.TimestampedSampleProvider#getSampleTime()
+	 */
+	public long getSampleTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Returns the sequence number of the sample most recently integrated.
+	 * 
+	 * @see lejos.robotics.TimestampedSampleProvider#getSampleSequence()
+	 */
+	public int getSampleSequence() {
+		return sequence;
+	}
 }
@@ -0,0 +1,274 @@
+package lejos.robotics.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import lejos.robotics.SampleProvider;
+import lejos.robotics.TimestampedSampleProvider;
+
+/**
+ * Filter that logs the samples that pass through it to a binary file.<p>
+ * Samples are collected into fixed size blocks held in memory that is allocated when the
+ * filter is created. Full blocks are written to the file by a background thread, so
+ * logging a sample only copies it into the current block and never waits for the file
+ * system. If the background thread falls behind and no free block is available the sample
+ * is dropped and counted, the number dropped is recorded in the next block written.
+ * The file is extended in large steps ahead of the data, and trimmed to the data when the
+ * filter is closed, so the file system is not updated for every block.<p>
+ * Within a block the data is held by column, the values of each channel are stored
+ * together. The file header contains:
+ * <pre>
+ *   int    LOG_MAGIC
+ *   int    FORMAT_VERSION
+ *   int    number of channels
+ *   int    samples per block
+ *   UTF    channel names (one per channel)
+ * </pre>
+ * Each block contains:
+ * <pre>
+ *   int    number of samples in the block (0 marks the end of the data)
+ *   int    number of samples dropped before this block
+ *   long   time of the first sample (ns)
+ *   int    time of each sample relative to the first (us), samples per block of them
+ *   float  values of each channel, samples per block of them for each channel in turn
+ * </pre>
+ * All values are big endian. The last block of the file may be partly filled.
+ */
+public class LogFilter extends AbstractFilter {
+	/** First value in the header of a log file */
+	public static final int LOG_MAGIC = 0x4c4a4c47;
+	/** Version of the log file format */
+	public static final int FORMAT_VERSION = 1;
+	/** Size of the block before the sample times */
+	public static final int BLOCK_HEADER_SIZE = 16;
+	public static final int DEFAULT_BLOCK_SAMPLES = 256;
+	public static final int DEFAULT_BLOCKS = 4;
+	// Number of blocks the file is extended by
+	protected static final int EXTEND_BLOCKS = 64;
+
+	protected final RandomAccessFile file;
+	protected final FileChannel channel;
+	protected final int blockSamples;
+	protected final int blockSize;
+	protected final TimestampedSampleProvider timestamped;
+	// Blocks waiting to be used and waiting to be written, access must be synchronized on the filter
+	protected final ByteBuffer[] free;
+	protected int freeCount;
+	protected final ByteBuffer[] full;
+	protected int fullHead;
+	protected int fullCount;
+	// The block being filled
+	protected ByteBuffer current;
+	protected int count;
+	protected long baseTime;
+	protected int dropped;
+	protected volatile int totalDropped;
+	protected long written;
+	protected long allocated;
+	protected boolean closing;
+	protected volatile IOException error;
+	protected final Writer writer;
+
+	/**
+	 * Create a filter that logs samples to a file, using the default block size and number of blocks.
+	 * @param source the source of the samples
+	 * @param file the file to create
+	 * @param names the names of the channels, or null
+	 * @throws IOException
+	 */
+	public LogFilter(SampleProvider source, File file, String[] names) throws IOException {
+		this(source, file, names, DEFAULT_BLOCK_SAMPLES, DEFAULT_BLOCKS);
+	}
+
+	/**
+	 * Create a filter that logs samples to a file.
+	 * @param source the source of the samples
+	 * @param file the file to create
+	 * @param names the names of the channels, or null
+	 * @param blockSamples the number of samples in each block
+	 * @param blocks the number of blocks held in memory
+	 * @throws IOException
+	 */
+	public LogFilter(SampleProvider source, File file, String[] names, int blockSamples, int blocks) throws IOException {
+		super(source);
+		if (blockSamples <= 0 || blocks < 2)
+			throw new IllegalArgumentException("Invalid block size");
+		if (names != null && names.length != sampleSize)
+			throw new IllegalArgumentException("Wrong number of names");
+		this.blockSamples = blockSamples;
+		blockSize = BLOCK_HEADER_SIZE + blockSamples*4 + sampleSize*blockSamples*4;
+		timestamped = (source instanceof TimestampedSampleProvider ? (TimestampedSampleProvider) source : null);
+		free = new ByteBuffer[blocks];
+		full = new ByteBuffer[blocks];
+		for(int i = 0; i < blocks; i++)
+			free[i] = ByteBuffer.allocateDirect(blockSize);
+		freeCount = blocks;
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(buf);
+		dos.writeInt(LOG_MAGIC);
+		dos.writeInt(FORMAT_VERSION);
+		dos.writeInt(sampleSize);
+		dos.writeInt(blockSamples);
+		for(int i = 0; i < sampleSize; i++)
+			dos.writeUTF(names == null ? "" : names[i]);
+		dos.close();
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		channel = this.file.getChannel();
+		write(ByteBuffer.wrap(buf.toByteArray()));
+		writer = new Writer();
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Fetches a sample from the source and logs it.
+	 *
+	 * @see lejos.robotics.filter.AbstractFilter#fetchSample(float[], int)
+	 */
+	@Override
+	public void fetchSample(float[] sample, int offset) {
+		super.fetchSample(sample, offset);
+		log(sample, offset, (timestamped != null ? timestamped.getSampleTime() : System.nanoTime()));
+	}
+
+	/**
+	 * Log a sample. This should only be called by one thread at a time.
+	 * @param sample the array holding the sample
+	 * @param offset the offset of the sample in the array
+	 * @param time the time of the sample in ns
+	 */
+	public void log(float[] sample, int offset, long time) {
+		ByteBuffer b = current;
+		if (b == null) {
+			b = current = takeFree();
+			if (b == null) {
+				dropped++;
+				totalDropped++;
+				return;
+			}
+			count = 0;
+			baseTime = time;
+		}
+		b.putInt(BLOCK_HEADER_SIZE + count*4, (int)((time - baseTime)/1000));
+		int index = BLOCK_HEADER_SIZE + blockSamples*4 + count*4;
+		for(int i = 0; i < sampleSize; i++, index += blockSamples*4)
+			b.putFloat(index, sample[offset + i]);
+		if (++count >= blockSamples)
+			submit();
+	}
+
+	/**
+	 * Pass the current block, even if it is only partly filled, to the background thread to be written.
+	 */
+	public void flush() {
+		if (current != null && count > 0)
+			submit();
+	}
+
+	/**
+	 * Write any logged samples to the file and close it.
+	 * @throws IOException if the log could not be written
+	 */
+	public void close() throws IOException {
+		flush();
+		synchronized(this) {
+			closing = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			file.setLength(written);
+		} finally {
+			file.close();
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Return the number of samples that were dropped because no block was free.
+	 * @return number of samples dropped
+	 */
+	public int getDroppedCount() {
+		return totalDropped;
+	}
+
+	protected synchronized ByteBuffer takeFree() {
+		if (freeCount == 0 || closing || error != null)
+			return null;
+		return free[--freeCount];
+	}
+
+	protected void submit() {
+		ByteBuffer b = current;
+		b.putInt(0, count);
+		b.putInt(4, dropped);
+		b.putLong(8, baseTime);
+		current = null;
+		dropped = 0;
+		synchronized(this) {
+			full[(fullHead + fullCount) % full.length] = b;
+			fullCount++;
+			notifyAll();
+		}
+	}
+
+	protected void write(ByteBuffer b) throws IOException {
+		if (written + b.remaining() > allocated) {
+			allocated = written + b.remaining() + (long)EXTEND_BLOCKS*blockSize;
+			file.setLength(allocated);
+		}
+		channel.position(written);
+		while (b.hasRemaining())
+			written += channel.write(b);
+	}
+
+	/**
+	 * Background thread that writes the full blocks to the file
+	 */
+	protected class Writer extends Thread {
+		@Override
+		public void run() {
+			for(;;) {
+				ByteBuffer b;
+				synchronized(LogFilter.this) {
+					while (fullCount == 0 && !closing) {
+						try {
+							LogFilter.this.wait();
+						} catch (InterruptedException e) {
+							// ignore
+						}
+					}
+					if (fullCount == 0)
+						return;
+					b = full[fullHead];
+					full[fullHead] = null;
+					fullHead = (fullHead + 1) % full.length;
+					fullCount--;
+				}
+				if (error == null) {
+					try {
+						b.clear();
+						write(b);
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+				synchronized(LogFilter.this) {
+					free[freeCount++] = b;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package lejos.robotics.filter;
+
+import lejos.robotics.SampleProvider;
+import lejos.robotics.TimestampedSampleProvider;
+
+/**
+ * Estimates the orientation of an inertial measurement unit by fusing the samples of its
+ * gyroscope, accelerometer and (optionally) magnetometer. The orientation is held as a
+ * quaternion and updated using the gradient descent algorithm of Sebastian Madgwick: the
+ * rate of turn is integrated, and the result is corrected towards the orientation in
+ * which gravity, and the magnetic field, point the way the sensors say they do. Without a
+ * magnetometer the heading is only obtained from the gyroscope and will drift.<p>
+ * The sources must use the leJOS conventions, the gyroscope gives the rate of turn about the
+ * X, Y and Z axes in degrees/second and the accelerometer gives the acceleration along them.
+ * The units of the accelerometer and magnetometer do not matter. If the gyroscope is a
+ * {@link TimestampedSampleProvider} the orientation is only updated when it has a new
+ * sample, using the time between its samples, so the filter can be fetched at any rate
+ * and runs at the rate of the sensor.<p>
+ * The sample contains three elements, the rotation about the X, Y and Z axes (roll, pitch
+ * and heading) in degrees. Updating the orientation does not allocate any memory.
+ *
+ * @see <a href="http://www.x-io.co.uk/open-source-imu-and-ahrs-algorithms/">Madgwick's AHRS algorithm</a>
+ */
+public class MadgwickFilter extends AbstractFilter implements TimestampedSampleProvider {
+	/** Default gain of the correction */
+	public static final float DEFAULT_BETA = 0.1f;
+	private static final float DEG_TO_RAD = (float) (Math.PI/180);
+	private static final float RAD_TO_DEG = (float) (180/Math.PI);
+
+	protected final SampleProvider accel;
+	protected final SampleProvider magnetic;
+	protected final TimestampedSampleProvider timestamped;
+	protected final float[] rate;
+	protected final float[] acc;
+	protected final float[] mag;
+	// The orientation
+	protected float q0 = 1, q1, q2, q3;
+	protected float beta = DEFAULT_BETA;
+	protected boolean initialised;
+	protected long lastTime;
+	protected int lastSequence;
+	protected int sequence;
+
+	/**
+	 * Create a filter that uses a gyroscope and an accelerometer.
+	 * @param rate the source of the rate of turn
+	 * @param accel the source of the acceleration
+	 */
+	public MadgwickFilter(SampleProvider rate, SampleProvider accel) {
+		this(rate, accel, null);
+	}
+
+	/**
+	 * Create a filter that uses a gyroscope, an accelerometer and a magnetometer.
+	 * @param rate the source of the rate of turn
+	 * @param accel the source of the acceleration
+	 * @param magnetic the source of the magnetic field, or null
+	 */
+	public MadgwickFilter(SampleProvider rate, SampleProvider accel, SampleProvider magnetic) {
+		super(rate);
+		if (rate.sampleSize() < 3 || accel.sampleSize() < 3 || (magnetic != null && magnetic.sampleSize() < 3))
+			throw new IllegalArgumentException("Sources must have three axes");
+		this.accel = accel;
+		this.magnetic = magnetic;
+		timestamped = (rate instanceof TimestampedSampleProvider ? (TimestampedSampleProvider) rate : null);
+		this.rate = new float[rate.sampleSize()];
+		acc = new float[accel.sampleSize()];
+		mag = new float[magnetic == null ? 3 : magnetic.sampleSize()];
+		sampleSize = 3;
+	}
+
+	/**
+	 * Set the gain of the correction. A higher gain corrects gyroscope drift more quickly
+	 * but follows the noise and the acceleration of the sensor more closely.
+	 * @param beta the gain
+	 */
+	public void setBeta(float beta) {
+		this.beta = beta;
+	}
+
+	public float getBeta() {
+		return beta;
+	}
+
+	/**
+	 * Discard the orientation, the next sample sets it from the accelerometer and magnetometer.
+	 */
+	public void reset() {
+		initialised = false;
+	}
+
+	/**
+	 * Fetches samples from the sources, updates the orientation and returns it as angles.
+	 *
+	 * @see lejos.robotics.filter.AbstractFilter#fetchSample(float[], int)
+	 */
+	@Override
+	public void fetchSample(float[] sample, int offset) {
+		source.fetchSample(rate, 0);
+		accel.fetchSample(acc, 0);
+		if (magnetic != null)
+			magnetic.fetchSample(mag, 0);
+		long now;
+		boolean fresh = true;
+		if (timestamped != null) {
+			now = timestamped.getSampleTime();
+			int seq = timestamped.getSampleSequence();
+			fresh = (seq != lastSequence);
+			lastSequence = seq;
+		}
+		else
+			now = System.nanoTime();
+		if (!initialised) {
+			initialise();
+			initialised = true;
+			lastTime = now;
+			sequence++;
+		}
+		else if (fresh) {
+			float dt = (now - lastTime)*1e-9f;
+			lastTime = now;
+			if (dt > 0)
+				update(dt);
+			sequence++;
+		}
+		getAngles(sample, offset);
+	}
+
+	@Override
+	public long getSampleTime() {
+		return lastTime;
+	}
+
+	@Override
+	public int getSampleSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Return the orientation as angles.
+	 * @param angles the array to store the rotation about the X, Y and Z axes in (degrees)
+	 * @param offset the offset of the angles within the array
+	 */
+	public void getAngles(float[] angles, int offset) {
+		angles[offset] = (float) Math.atan2(2*(q0*q1 + q2*q3), 1 - 2*(q1*q1 + q2*q2))*RAD_TO_DEG;
+		float sinp = 2*(q0*q2 - q3*q1);
+		angles[offset + 1] = (float) Math.asin(sinp > 1 ? 1 : (sinp < -1 ? -1 : sinp))*RAD_TO_DEG;
+		angles[offset + 2] = (float) Math.atan2(2*(q0*q3 + q1*q2), 1 - 2*(q2*q2 + q3*q3))*RAD_TO_DEG;
+	}
+
+	/**
+	 * Return the orientation as a quaternion.
+	 * @param q the array to store the quaternion in (w, x, y, z)
+	 * @param offset the offset of the quaternion within the array
+	 */
+	public void getQuaternion(float[] q, int offset) {
+		q[offset] = q0;
+		q[offset + 1] = q1;
+		q[offset + 2] = q2;
+		q[offset + 3] = q3;
+	}
+
+	/**
+	 * Set the orientation directly from the accelerometer and magnetometer.
+	 */
+	protected void initialise() {
+		float ax = acc[0], ay = acc[1], az = acc[2];
+		if (ax == 0 && ay == 0 && az == 0) {
+			q0 = 1;
+			q1 = q2 = q3 = 0;
+			return;
+		}
+		float roll = (float) Math.atan2(ay, az);
+		float pitch = (float) Math.atan2(-ax, Math.sqrt(ay*ay + az*az));
+		float yaw = 0;
+		if (magnetic != null) {
+			float sr = (float) Math.sin(roll), cr = (float) Math.cos(roll);
+			float sp = (float) Math.sin(pitch), cp = (float) Math.cos(pitch);
+			// Magnetic field rotated into the horizontal plane
+			float hx = mag[0]*cp + mag[1]*sr*sp + mag[2]*cr*sp;
+			float hy = mag[1]*cr - mag[2]*sr;
+			if (hx != 0 || hy != 0)
+				yaw = (float) Math.atan2(-hy, hx);
+		}
+		float cr = (float) Math.cos(roll/2), sr = (float) Math.sin(roll/2);
+		float cp = (float) Math.cos(pitch/2), sp = (float) Math.sin(pitch/2);
+		float cy = (float) Math.cos(yaw/2), sy = (float) Math.sin(yaw/2);
+		q0 = cr*cp*cy + sr*sp*sy;
+		q1 = sr*cp*cy - cr*sp*sy;
+		q2 = cr*sp*cy + sr*cp*sy;
+		q3 = cr*cp*sy - sr*sp*cy;
+	}
+
+	/**
+	 * Update the orientation using the samples of the sources.
+	 * @param dt time since the previous update in seconds
+	 */
+	protected void update(float dt) {
+		float gx = rate[0]*DEG_TO_RAD, gy = rate[1]*DEG_TO_RAD, gz = rate[2]*DEG_TO_RAD;
+		float ax = acc[0], ay = acc[1], az = acc[2];
+		float mx = mag[0], my = mag[1], mz = mag[2];
+
+		// Rate of change of the quaternion from the gyroscope
+		float qDot0 = 0.5f*(-q1*gx - q2*gy - q3*gz);
+		float qDot1 = 0.5f*(q0*gx + q2*gz - q3*gy);
+		float qDot2 = 0.5f*(q0*gy - q1*gz + q3*gx);
+		float qDot3 = 0.5f*(q0*gz + q1*gy - q2*gx);
+
+		// Correct it if the accelerometer has a measurement
+		if (ax != 0 || ay != 0 || az != 0) {
+			float norm = invSqrt(ax*ax + ay*ay + az*az);
+			ax *= norm;
+			ay *= norm;
+			az *= norm;
+			float s0, s1, s2, s3;
+			float q0q0 = q0*q0, q1q1 = q1*q1, q2q2 = q2*q2, q3q3 = q3*q3;
+			float _2q0 = 2*q0, _2q1 = 2*q1, _2q2 = 2*q2, _2q3 = 2*q3;
+			if (magnetic == null || (mx == 0 && my == 0 && mz == 0)) {
+				// Gravity only
+				float _4q0 = 4*q0, _4q1 = 4*q1, _4q2 = 4*q2;
+				float _8q1 = 8*q1, _8q2 = 8*q2;
+				s0 = _4q0*q2q2 + _2q2*ax + _4q0*q1q1 - _2q1*ay;
+				s1 = _4q1*q3q3 - _2q3*ax + 4*q0q0*q1 - _2q0*ay - _4q1 + _8q1*q1q1 + _8q1*q2q2 + _4q1*az;
+				s2 = 4*q0q0*q2 + _2q0*ax + _4q2*q3q3 - _2q3*ay - _4q2 + _8q2*q1q1 + _8q2*q2q2 + _4q2*az;
+				s3 = 4*q1q1*q3 - _2q1*ax + 4*q2q2*q3 - _2q2*ay;
+			}
+			else {
+				norm = invSqrt(mx*mx + my*my + mz*mz);
+				mx *= norm;
+				my *= norm;
+				mz *= norm;
+				float _2q0mx = 2*q0*mx, _2q0my = 2*q0*my, _2q0mz = 2*q0*mz, _2q1mx = 2*q1*mx;
+				float _2q0q2 = 2*q0*q2, _2q2q3 = 2*q2*q3;
+				float q0q1 = q0*q1, q0q2 = q0*q2, q0q3 = q0*q3;
+				float q1q2 = q1*q2, q1q3 = q1*q3, q2q3 = q2*q3;
+				// Direction of the magnetic field of the earth
+				float hx = mx*q0q0 - _2q0my*q3 + _2q0mz*q2 + mx*q1q1 + _2q1*my*q2 + _2q1*mz*q3 - mx*q2q2 - mx*q3q3;
+				float hy = _2q0mx*q3 + my*q0q0 - _2q0mz*q1 + _2q1mx*q2 - my*q1q1 + my*q2q2 + _2q2*mz*q3 - my*q3q3;
+				float _2bx = (float) Math.sqrt(hx*hx + hy*hy);
+				float _2bz = -_2q0mx*q2 + _2q0my*q1 + mz*q0q0 + _2q1mx*q3 - mz*q1q1 + _2q2*my*q3 - mz*q2q2 + mz*q3q3;
+				float _4bx = 2*_2bx, _4bz = 2*_2bz;
+				// Errors of the expected gravity and field
+				float ex = 2*q1q3 - _2q0q2 - ax;
+				float ey = 2*q0q1 + _2q2q3 - ay;
+				float ez = 1 - 2*q1q1 - 2*q2q2 - az;
+				float fx = _2bx*(0.5f - q2q2 - q3q3) + _2bz*(q1q3 - q0q2) - mx;
+				float fy = _2bx*(q1q2 - q0q3) + _2bz*(q0q1 + q2q3) - my;
+				float fz = _2bx*(q0q2 + q1q3) + _2bz*(0.5f - q1q1 - q2q2) - mz;
+				s0 = -_2q2*ex + _2q1*ey - _2bz*q2*fx + (-_2bx*q3 + _2bz*q1)*fy + _2bx*q2*fz;
+				s1 = _2q3*ex + _2q0*ey - 4*q1*ez + _2bz*q3*fx + (_2bx*q2 + _2bz*q0)*fy + (_2bx*q3 - _4bz*q1)*fz;
+				s2 = -_2q0*ex + _2q3*ey - 4*q2*ez + (-_4bx*q2 - _2bz*q0)*fx + (_2bx*q1 + _2bz*q3)*fy + (_2bx*q0 - _4bz*q2)*fz;
+				s3 = _2q1*ex + _2q2*ey + (-_4bx*q3 + _2bz*q1)*fx + (-_2bx*q0 + _2bz*q2)*fy + _2bx*q1*fz;
+			}
+			float sn = s0*s0 + s1*s1 + s2*s2 + s3*s3;
+			if (sn > 0) {
+				norm = invSqrt(sn);
+				qDot0 -= beta*s0*norm;
+				qDot1 -= beta*s1*norm;
+				qDot2 -= beta*s2*norm;
+				qDot3 -= beta*s3*norm;
+			}
+		}
+
+		// Integrate
+		q0 += qDot0*dt;
+		q1 += qDot1*dt;
+		q2 += qDot2*dt;
+		q3 += qDot3*dt;
+		float norm = invSqrt(q0*q0 + q1*q1 + q2*q2 + q3*q3);
+		q0 *= norm;
+		q1 *= norm;
+		q2 *= norm;
+		q3 *= norm;
+	}
+
+	private static float invSqrt(float x) {
+		return (float) (1/Math.sqrt(x));
+	}
+}
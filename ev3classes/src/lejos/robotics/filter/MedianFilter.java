@@ -5,41 +5,166 @@ import lejos.robotics.SampleProvider;
 /**
  * This filter returns the median value found in the N most recent samples. <br>
  * The number of samples used is specified in the constructor of the filter.<b>
+ * For an even number of samples the upper of the two middle values is returned.<br>
+ * The median of each axis is maintained incrementally using a pair of heaps,
+ * so each new sample costs O(log N) and no memory is allocated after construction.
  * 
  * @author Aswin
  * 
  */
 public class MedianFilter extends SampleBuffer {
 
+  private final Window[] windows;
+
   public MedianFilter(SampleProvider source, int bufferSize) {
     super(source, bufferSize);
+    windows = new Window[sampleSize];
+    for (int i = 0; i < sampleSize; i++)
+      windows[i] = new Window(i);
   }
 
   @Override
   public void fetchSample(float[] sample, int off) {
-    float current, smallest, value;
-    int n, halfWay;
+    int pos = currentPos;
+    boolean full = actualSize == bufferSize;
     super.fetchSample(sample, off);
     for (int i = 0; i < sampleSize; i++) {
-      current = Float.NEGATIVE_INFINITY;
-      n = 0;
-      halfWay = actualSize / 2;
-      while (n <= halfWay) {
-        smallest = Float.POSITIVE_INFINITY;
-        for (int j = 0; j < actualSize; j++) {
-          value = sampleBuffer[currentPos * sampleSize + i];
-          if (value == smallest)
-            n++;
-          else if (value > current && value < smallest)
-            smallest = value;
-        }
-        current = smallest;
-
-        n++;
+      if (full)
+        windows[i].replace(pos);
+      else
+        windows[i].insert(pos);
+      sample[i + off] = windows[i].median();
+    }
+  }
+
+  /**
+   * Holds the buffer positions of one axis in two heaps. The lower half of the
+   * values are in a max heap and the upper half in a min heap, the lower heap
+   * holds the extra value when the number of values is odd.
+   */
+  private class Window {
+    final int axis;
+    final int[] lo;
+    final int[] hi;
+    // index of each buffer position within its heap, negative for the upper heap
+    final int[] where;
+    int loSize = 0;
+    int hiSize = 0;
+
+    Window(int axis) {
+      this.axis = axis;
+      lo = new int[bufferSize];
+      hi = new int[bufferSize];
+      where = new int[bufferSize];
+    }
+
+    float value(int pos) {
+      return sampleBuffer[toPos(axis, pos)];
+    }
+
+    /**
+     * Returns true if the value at position a belongs above the value at
+     * position b in the given heap.
+     */
+    boolean above(boolean inLo, int a, int b) {
+      return inLo ? value(a) > value(b) : value(a) < value(b);
+    }
+
+    void set(boolean inLo, int index, int pos) {
+      if (inLo) {
+        lo[index] = pos;
+        where[pos] = index;
+      } else {
+        hi[index] = pos;
+        where[pos] = -index - 1;
       }
-      sample[i + off] = current;
     }
 
+    void siftUp(boolean inLo, int index) {
+      int[] heap = inLo ? lo : hi;
+      int pos = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) >> 1;
+        if (!above(inLo, pos, heap[parent]))
+          break;
+        set(inLo, index, heap[parent]);
+        index = parent;
+      }
+      set(inLo, index, pos);
+    }
+
+    void siftDown(boolean inLo, int index) {
+      int[] heap = inLo ? lo : hi;
+      int size = inLo ? loSize : hiSize;
+      int pos = heap[index];
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size)
+          break;
+        if (child + 1 < size && above(inLo, heap[child + 1], heap[child]))
+          child++;
+        if (!above(inLo, heap[child], pos))
+          break;
+        set(inLo, index, heap[child]);
+        index = child;
+      }
+      set(inLo, index, pos);
+    }
+
+    void push(boolean inLo, int pos) {
+      if (inLo) {
+        set(true, loSize, pos);
+        siftUp(true, loSize++);
+      } else {
+        set(false, hiSize, pos);
+        siftUp(false, hiSize++);
+      }
+    }
+
+    int pop(boolean inLo) {
+      int[] heap = inLo ? lo : hi;
+      int top = heap[0];
+      int size = inLo ? --loSize : --hiSize;
+      if (size > 0) {
+        set(inLo, 0, heap[size]);
+        siftDown(inLo, 0);
+      }
+      return top;
+    }
+
+    /**
+     * Add a new buffer position to the window.
+     */
+    void insert(int pos) {
+      push(loSize == 0 || value(pos) <= value(lo[0]), pos);
+      if (loSize > hiSize + 1)
+        push(false, pop(true));
+      else if (hiSize > loSize)
+        push(true, pop(false));
+    }
+
+    /**
+     * The value held in a buffer position has been replaced, restore the
+     * heap ordering.
+     */
+    void replace(int pos) {
+      boolean inLo = where[pos] >= 0;
+      siftUp(inLo, inLo ? where[pos] : -where[pos] - 1);
+      siftDown(inLo, inLo ? where[pos] : -where[pos] - 1);
+      // Only one value has changed so at most one pair needs to swap halves
+      if (hiSize > 0 && value(lo[0]) > value(hi[0])) {
+        int a = lo[0];
+        int b = hi[0];
+        set(true, 0, b);
+        set(false, 0, a);
+        siftDown(true, 0);
+        siftDown(false, 0);
+      }
+    }
+
+    float median() {
+      return loSize > hiSize ? value(lo[0]) : value(hi[0]);
+    }
   }
 
 }
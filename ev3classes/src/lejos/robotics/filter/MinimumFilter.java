@@ -5,38 +5,48 @@ import lejos.robotics.SampleProvider;
 /**
  * This filter returns the minimum values found in the N most recent samples. <br>
  * The number of samples used is specified in the constructor of the filter.<b>
+ * The minimum is maintained using a monotonic queue for each axis, so each new
+ * sample costs amortized O(1) and no memory is allocated after construction.
  * 
  * @author Aswin
  * 
  */
 public class MinimumFilter extends SampleBuffer {
 
-  float[] min;
-  float[] buf, oldest;
+  // For each axis a queue of buffer positions whose values increase from the
+  // head to the tail, the head holds the position of the current minimum.
+  private final int[] queue;
+  private final int[] head;
+  private final int[] count;
 
   @Override
   public void fetchSample(float[] sample, int off) {
-    getOldest(oldest, 0);
-    super.fetchSample(buf, 0);
+    int pos = currentPos;
+    boolean full = actualSize == bufferSize;
+    super.fetchSample(sample, off);
     for (int i = 0; i < sampleSize; i++) {
-      // if the dropped sample happens to be the smallest sample, then rescan
-      // the buffer for a smallest value;
-      if (oldest[i] == min[i] || buf[i] < min[i]) {
-        min[i] = Float.POSITIVE_INFINITY;
-        for (int j = 0; j < actualSize; j++) {
-          min[i] = Math.min(sampleBuffer[j * sampleSize + i], min[i]);
-        }
+      int base = i * bufferSize;
+      // drop the sample that has just left the window
+      if (full && count[i] > 0 && queue[base + head[i]] == pos) {
+        head[i] = (head[i] + 1) % bufferSize;
+        count[i]--;
       }
-      sample[i + off] = min[i];
+      // drop older samples that can no longer be the minimum
+      float value = sample[i + off];
+      while (count[i] > 0
+          && sampleBuffer[toPos(i, queue[base + (head[i] + count[i] - 1) % bufferSize])] >= value)
+        count[i]--;
+      queue[base + (head[i] + count[i]) % bufferSize] = pos;
+      count[i]++;
+      sample[i + off] = sampleBuffer[toPos(i, queue[base + head[i]])];
     }
   }
 
   public MinimumFilter(SampleProvider source, int bufferSize) {
     super(source, bufferSize);
-    min = new float[sampleSize];
-    buf = new float[sampleSize];
-    oldest = new float[sampleSize];
-
+    queue = new int[sampleSize * bufferSize];
+    head = new int[sampleSize];
+    count = new int[sampleSize];
   }
 
 }
@@ -3,115 +3,199 @@ package lejos.robotics.filter;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 
 import lejos.hardware.ev3.LocalEV3;
 import lejos.robotics.SampleProvider;
 import lejos.utility.Delay;
 
+/**
+ * Filter that publishes the samples that pass through it to subscribers on the network.<p>
+ * The existence of the source is broadcast using UDP once a second (see {@link PublishedSource}).
+ * Subscribers connect using TCP and are sent a header describing the source followed by
+ * a stream of fixed size binary frames, one per sample. Frames are sent by a background
+ * thread using non-blocking I/O so a slow subscriber never delays the thread fetching the
+ * samples, if a subscriber has not accepted the previous frame the new one is dropped for
+ * that subscriber. Optionally the frames can also be sent to a UDP multicast group so that
+ * any number of subscribers can receive them for the cost of a single send.<p>
+ * The stream header contains:
+ * <pre>
+ *   int    STREAM_MAGIC
+ *   int    PROTOCOL_VERSION
+ *   UTF    host name
+ *   UTF    sample name
+ *   int    sample size
+ *   float  frequency
+ * </pre>
+ * Each frame contains:
+ * <pre>
+ *   long   time stamp (ms)
+ *   int    sequence number
+ *   float  sample values (sample size of them)
+ * </pre>
+ * Multicast datagrams contain the TCP port number of the source (as an int) followed by a frame.
+ */
 public class PublishFilter extends AbstractFilter  {
 	protected static final int PUBLISH_PORT = 3017;
 	protected static final int UDP_PERIOD = 1000;
+	/** First value in the header of a sample stream */
+	public static final int STREAM_MAGIC = 0x4c505346;
+	/** Version of the sample stream format */
+	public static final int PROTOCOL_VERSION = 1;
+	/** Size of the frame before the sample values */
+	public static final int FRAME_HEADER_SIZE = 12;
 	
 	protected String name;
 	protected String host;
 	protected DatagramSocket datagramSocket;
 	protected Publisher publisher = new Publisher();
-	protected Listener listener = new Listener();
+	protected Sender sender = new Sender();
 	protected float[] latest;
 	protected float frequency;
 	protected byte[] publishMessage;
 	protected DatagramPacket publishPacket;
-	protected ServerSocket ss;
-	protected ArrayList<Socket> subscribers = new ArrayList<Socket>();
+	protected ServerSocketChannel ss;
+	protected Selector selector;
+	protected byte[] streamHeader;
+	// The most recent frame, access must be synchronized on the buffer
+	protected ByteBuffer frame;
+	protected int sequence;
+	protected DatagramChannel multicast;
+	protected InetSocketAddress multicastAddress;
+	protected ByteBuffer multicastFrame;
+	protected volatile int dropped;
 
+	/**
+	 * Create a filter that publishes samples to TCP subscribers.
+	 * @param source the source of the samples
+	 * @param name name of the samples
+	 * @param frequency the rate at which samples will be fetched
+	 * @throws IOException
+	 */
 	public PublishFilter(SampleProvider source, String name, float frequency) throws IOException {
+		this(source, name, frequency, null, 0);
+	}
+
+	/**
+	 * Create a filter that publishes samples to TCP subscribers and to a UDP multicast group.
+	 * @param source the source of the samples
+	 * @param name name of the samples
+	 * @param frequency the rate at which samples will be fetched
+	 * @param multicastGroup the multicast group to send the samples to, or null for none
+	 * @param multicastPort the UDP port to send the multicast samples to
+	 * @throws IOException
+	 */
+	public PublishFilter(SampleProvider source, String name, float frequency, InetAddress multicastGroup, int multicastPort) throws IOException {
 		super(source);
 		this.name = name;
 		this.frequency = frequency;
 		latest = new float[sampleSize];
-		ss = new ServerSocket(0);
+		selector = Selector.open();
+		ss = ServerSocketChannel.open();
+		ss.socket().bind(new InetSocketAddress(0));
+		ss.configureBlocking(false);
+		ss.register(selector, SelectionKey.OP_ACCEPT);
 		host = LocalEV3.get().getName();
 		ByteArrayOutputStream buf = new ByteArrayOutputStream();
 		DataOutputStream dos = new DataOutputStream(buf);
 		// Host name
-		dos.writeUTF(LocalEV3.get().getName());
+		dos.writeUTF(host);
 		// Port number
-		dos.writeInt(ss.getLocalPort());
+		dos.writeInt(ss.socket().getLocalPort());
 		// Sample name
 		dos.writeUTF(name);
 		// Sample size
 		dos.writeInt(sampleSize);
 		// Frequency
 		dos.writeFloat(frequency);
+		// Multicast group and port
+		dos.writeUTF(multicastGroup == null ? "" : multicastGroup.getHostAddress());
+		dos.writeInt(multicastPort);
 		dos.close();
 		buf.close(); 
 		publishMessage =  buf.toByteArray();
 		publishPacket =  new DatagramPacket(publishMessage, publishMessage.length, InetAddress.getByName("255.255.255.255"), PUBLISH_PORT);
+		
+		// Header sent once at the start of each subscriber stream
+		buf = new ByteArrayOutputStream();
+		dos = new DataOutputStream(buf);
+		dos.writeInt(STREAM_MAGIC);
+		dos.writeInt(PROTOCOL_VERSION);
+		dos.writeUTF(host);
+		dos.writeUTF(name);
+		dos.writeInt(sampleSize);
+		dos.writeFloat(frequency);
+		dos.close();
+		buf.close();
+		streamHeader = buf.toByteArray();
+		frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + 4*sampleSize);
+		
+		if (multicastGroup != null) {
+			multicastAddress = new InetSocketAddress(multicastGroup, multicastPort);
+			multicast = DatagramChannel.open();
+			multicast.configureBlocking(false);
+			multicastFrame = ByteBuffer.allocate(4 + frame.capacity());
+		}
 		datagramSocket = new DatagramSocket();
 		datagramSocket.setBroadcast(true);
 		publisher.setDaemon(true);
 		publisher.start();
-		listener.setDaemon(true);
-		listener.start();
+		sender.setDaemon(true);
+		sender.start();
 	}
 	
 	@Override
 	public void fetchSample(float[] sample, int offset) {
-		byte[] sampleMessage;
-		source.fetchSample(latest, offset);
-		for(int i=0;i<sampleSize();i++) sample[offset+i] = latest[i];
+		source.fetchSample(latest, 0);
+		for(int i=0;i<sampleSize;i++) sample[offset+i] = latest[i];
 		
-		// Put the sample message in a byte array
-		try {
-			ByteArrayOutputStream buf = new ByteArrayOutputStream();
-			DataOutputStream dos = new DataOutputStream(buf);
-			// Timestamp
-			dos.writeLong(System.currentTimeMillis());
-			// Host name
-			dos.writeUTF(host);
-			// Sample name
-			dos.writeUTF(name);
-			// Sample size
-			dos.writeInt(sampleSize);
-			// Sample
-			for(int i=0;i<sampleSize;i++) dos.writeFloat(sample[i]);
-			dos.close();
-			buf.close();
-			sampleMessage = buf.toByteArray();
-		} catch (IOException e) {
-			e.printStackTrace();
-			return;
+		synchronized (frame) {
+			frame.clear();
+			frame.putLong(System.currentTimeMillis());
+			frame.putInt(++sequence);
+			for(int i=0;i<sampleSize;i++) frame.putFloat(latest[i]);
+			frame.flip();
+			if (multicast != null) {
+				multicastFrame.clear();
+				multicastFrame.putInt(ss.socket().getLocalPort());
+				multicastFrame.put(frame);
+				multicastFrame.flip();
+				frame.rewind();
+			}
 		}
+		// Let the sender know there is a new frame
+		selector.wakeup();
 		
-		// Send the data to all listeners and remove inactive ones
-		synchronized (listener) {
-			ArrayList<Socket> active = new ArrayList<Socket>();
-			
-			for(Socket s: subscribers) {
-				try {
-					OutputStream os = s.getOutputStream();
-					os.write(sampleMessage);
-					os.flush();
-				    active.add(s);
-				} catch (IOException e) {
-					try {
-						s.close();
-					} catch (IOException e1) {
-						// Ignore
-					}
-				}
+		if (multicast != null) {
+			try {
+				// Non-blocking, if there is no space the datagram is dropped
+				if (multicast.send(multicastFrame, multicastAddress) == 0)
+					dropped++;
+			} catch (IOException e) {
+				dropped++;
 			}
-			
-			subscribers = active;
 		}
 	}
+	
+	/**
+	 * Return the number of frames that have not been sent to a subscriber because
+	 * the subscriber (or the multicast channel) was not ready to accept them.
+	 * @return number of dropped frames
+	 */
+	public int getDropped() {
+		return dropped;
+	}
+	
 	/*
 	 * Continually send UDP message to publicise this source
 	 */
@@ -130,21 +214,89 @@ public class PublishFilter extends AbstractFilter  {
 		}
 	}
 	
-	// Listen for new subscribers to the source
-	private class Listener extends Thread {
+	/*
+	 * State of a single TCP subscriber
+	 */
+	private class Subscriber {
+		SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer out;
+		
+		Subscriber(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			key = channel.register(selector, 0);
+			out = ByteBuffer.allocate(Math.max(streamHeader.length, frame.capacity()));
+			out.put(streamHeader);
+			out.flip();
+		}
+		
+		/*
+		 * Queue a frame for sending, drop it if the previous data has not gone yet.
+		 * The caller must hold the frame lock.
+		 */
+		void queue() {
+			if (out.hasRemaining()) {
+				dropped++;
+				return;
+			}
+			out.clear();
+			out.put(frame);
+			out.flip();
+			frame.rewind();
+		}
+		
+		/*
+		 * Write as much queued data as the socket will accept.
+		 */
+		boolean flush() {
+			try {
+				if (out.hasRemaining())
+					channel.write(out);
+				key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+				return true;
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException e1) {
+					// Ignore
+				}
+				return false;
+			}
+		}
+	}
+	
+	/*
+	 * Accept new subscribers and send frames to them
+	 */
+	private class Sender extends Thread {
 		@Override
 		public void run() {
+			ArrayList<Subscriber> subscribers = new ArrayList<Subscriber>();
+			int sent = 0;
 			for(;;) {
 				try {
-					Socket s = ss.accept();
-					synchronized (listener) {
-						subscribers.add(s);
-					}
+					selector.select();
+					selector.selectedKeys().clear();
+					SocketChannel s;
+					while ((s = ss.accept()) != null)
+						subscribers.add(new Subscriber(s));
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
+				
+				synchronized (frame) {
+					if (sent != sequence) {
+						sent = sequence;
+						for(int i=0;i<subscribers.size();i++) subscribers.get(i).queue();
+					}
+				}
+				
+				// Send the data to all subscribers and remove inactive ones
+				for(int i=subscribers.size()-1;i>=0;i--)
+					if (!subscribers.get(i).flush()) subscribers.remove(i);
 			}
-			
 		}
 	}
 }
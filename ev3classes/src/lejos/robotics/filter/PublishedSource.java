@@ -2,9 +2,12 @@ package lejos.robotics.filter;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.text.DateFormat;
@@ -19,7 +22,7 @@ import java.util.Set;
 import lejos.utility.Delay;
 
 public class PublishedSource {
-	protected static final int MAX_PACKET_SIZE = 64;
+	protected static final int MAX_PACKET_SIZE = 128;
 	protected static final int PUBLISH_PORT = 3017;
 	protected static final int SOCKET_TIMEOUT = 3000;
 	protected static final int MAX_AGE = 10000;
@@ -43,6 +46,9 @@ public class PublishedSource {
 	protected String ipAddress;
 	protected Socket socket;
 	protected DataInputStream dis;
+	protected String multicastGroup;
+	protected int multicastPort;
+	protected MulticastSocket multicastSocket;
 	
 	public PublishedSource(String ipAddress, byte[] message) throws IOException {
 		this.ipAddress = ipAddress;
@@ -54,6 +60,13 @@ public class PublishedSource {
 		name = dis.readUTF();
 		sampleSize = dis.readInt();
 		frequency = dis.readFloat();
+		try {
+			multicastGroup = dis.readUTF();
+			multicastPort = dis.readInt();
+		} catch (EOFException e) {
+			// Source does not support multicast
+			multicastGroup = "";
+		}
 		dis.close();
 		bis.close();
 	}
@@ -64,6 +77,36 @@ public class PublishedSource {
 		return new SubscribedProvider(dis, this);
 	}
 	
+	/**
+	 * Subscribe to the samples sent to the multicast group of the source. Any number
+	 * of subscribers can receive the samples at the cost of a single send by the source.
+	 * @return the provider of the samples
+	 * @throws IOException if the source does not support multicast
+	 */
+	public SubscribedProvider connectMulticast() throws IOException {
+		if (!isMulticast())
+			throw new IOException("Source does not support multicast");
+		multicastSocket = new MulticastSocket(multicastPort);
+		multicastSocket.joinGroup(new InetSocketAddress(multicastGroup, multicastPort), null);
+		return new SubscribedProvider(multicastSocket, this);
+	}
+	
+	/**
+	 * Return true if the source also sends its samples to a multicast group
+	 * @return true if multicast is supported
+	 */
+	public boolean isMulticast() {
+		return multicastGroup.length() > 0;
+	}
+	
+	public String getMulticastGroup() {
+		return multicastGroup;
+	}
+	
+	public int getMulticastPort() {
+		return multicastPort;
+	}
+	
 	public int sampleSize() {
 		return sampleSize;
 	}
@@ -104,6 +147,7 @@ public class PublishedSource {
 	public void close() throws IOException {
 		if (dis != null) dis.close();
 		if (socket != null) socket.close();
+		if (multicastSocket != null) multicastSocket.close();
 	}
 	
 	private static Map<String,PublishedSource> sources = new HashMap<String,PublishedSource>();
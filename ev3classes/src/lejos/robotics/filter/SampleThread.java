@@ -1,16 +1,51 @@
 package lejos.robotics.filter;
 
+import java.util.concurrent.locks.LockSupport;
+
 import lejos.robotics.SampleProvider;
-import lejos.utility.Delay;
+import lejos.robotics.TimestampedSampleProvider;
 
 
-public class SampleThread extends AbstractFilter {
+/**
+ * Fetches samples from a source at a fixed rate in a separate thread and holds the most
+ * recent one. If the source reports when its samples were acquired, a sample is only
+ * treated as new when the source has acquired new data, and it keeps the time it was
+ * acquired. Otherwise each sample is timed when it is fetched.
+ * <p>
+ * Each new sample is also added to a ring buffer, from which a consumer can remove all
+ * of the samples in order using drainTo. The ring buffer has a single producer (the
+ * sampling thread) and should have a single consumer, neither of them lock it. If the
+ * consumer falls behind and the ring buffer is full new samples are not added to it and
+ * the overflow count is incremented. The most recent sample is always available from
+ * fetchSample.
+ */
+public class SampleThread extends AbstractFilter implements TimestampedSampleProvider {
+  public static final int DEFAULT_CAPACITY = 64;
   
-  float[] buffer;
-  boolean running = true;
+  // Ring buffer of samples and the times they were acquired
+  private final float[] ring;
+  private final long[] ringTimes;
+  private final int ringMask;
+  // number of samples added to and removed from the ring buffer
+  private volatile int head = 0;
+  private volatile int tail = 0;
+  private volatile int overflows = 0;
+  private volatile int overruns = 0;
+  // The most recent sample, access must be synchronized on this
+  private final float[] latest;
+  private long latestTime;
+  private int latestSequence;
+  // sample fetched from the source
+  private final float[] sample;
+  private volatile boolean running = true;
   private float sampleRate;
-  int interval;
-  boolean newSampleAvailable=false;
+  private volatile long period;
+  private volatile boolean newSampleAvailable=false;
+  private final TimestampedSampleProvider timestamped;
+  private int sourceSequence;
+  // time and sequence of the sample most recently fetched
+  private long sampleTime;
+  private int sampleSequence;
 
   /**
    * Create an instance and run at <code>sampleRate</code>.
@@ -21,9 +56,31 @@ public class SampleThread extends AbstractFilter {
    * The sample rate expressed in Hertz (Samples / second)
    */
   public SampleThread(SampleProvider source, float sampleRate) {
+    this(source, sampleRate, DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * Create an instance and run at <code>sampleRate</code>.
+   * 
+   * @param source
+   * A SampleProvider
+   * @param sampleRate
+   * The sample rate expressed in Hertz (Samples / second)
+   * @param capacity
+   * The number of samples the ring buffer can hold, rounded up to a power of two
+   */
+  public SampleThread(SampleProvider source, float sampleRate, int capacity) {
     super(source);
     setSampleRate(sampleRate);
-    buffer=new float[sampleSize];
+    int size = 1;
+    while (size < capacity)
+      size <<= 1;
+    ring=new float[size*sampleSize];
+    ringTimes=new long[size];
+    ringMask=size-1;
+    latest=new float[sampleSize];
+    sample=new float[sampleSize];
+    timestamped=(source instanceof TimestampedSampleProvider ? (TimestampedSampleProvider) source : null);
     Runner runner = new Runner();
     runner.setDaemon(true);
     runner.start();
@@ -34,12 +91,122 @@ public class SampleThread extends AbstractFilter {
     return newSampleAvailable;
   }
 
+  /**
+   * Fetches the most recent sample. This does not remove any samples from the ring buffer.
+   */
   public synchronized void fetchSample(float[] dst, int off) {
     for (int axis=0;axis<sampleSize;axis++) 
-      dst[axis+off]=buffer[axis];
+      dst[axis+off]=latest[axis];
+    sampleTime=latestTime;
+    sampleSequence=latestSequence;
     newSampleAvailable=false;
   }
-  
+
+  public synchronized long getSampleTime() {
+    return sampleTime;
+  }
+
+  public synchronized int getSampleSequence() {
+    return sampleSequence;
+  }
+
+  /**
+   * Removes samples from the ring buffer, oldest first.
+   * 
+   * @param dst
+   * The array to store the samples in, one after another
+   * @param maxSamples
+   * The maximum number of samples to remove
+   * @return the number of samples removed
+   */
+  public int drainTo(float[] dst, int maxSamples) {
+    return drainTo(dst, null, maxSamples);
+  }
+
+  /**
+   * Removes samples and the times they were acquired from the ring buffer, oldest first.
+   * 
+   * @param dst
+   * The array to store the samples in, one after another
+   * @param times
+   * The array to store the acquisition times (in nanoseconds) in, or null
+   * @param maxSamples
+   * The maximum number of samples to remove
+   * @return the number of samples removed
+   */
+  public int drainTo(float[] dst, long[] times, int maxSamples) {
+    int t=tail;
+    int n=Math.min(head-t, maxSamples);
+    n=Math.min(n, dst.length/sampleSize);
+    if (times != null)
+      n=Math.min(n, times.length);
+    for (int i=0;i<n;i++) {
+      int slot=(t+i) & ringMask;
+      System.arraycopy(ring, slot*sampleSize, dst, i*sampleSize, sampleSize);
+      if (times != null)
+        times[i]=ringTimes[slot];
+    }
+    if (n > 0)
+      tail=t+n;
+    return n;
+  }
+
+  /**
+   * @return the number of samples waiting in the ring buffer
+   */
+  public int available() {
+    return head-tail;
+  }
+
+  /**
+   * @return the number of samples that were not added to the ring buffer because it was full
+   */
+  public int getOverflowCount() {
+    return overflows;
+  }
+
+  /**
+   * @return the number of sample periods that were missed because fetching a sample took too long
+   */
+  public int getOverrunCount() {
+    return overruns;
+  }
+
+  /**
+   * Fetch a sample from the source and publish it if it is new.
+   */
+  private void update() {
+    source.fetchSample(sample,0);
+    long time;
+    int sequence;
+    if (timestamped != null) {
+      time=timestamped.getSampleTime();
+      sequence=timestamped.getSampleSequence();
+      if (sequence == sourceSequence) return;
+    }
+    else {
+      time=System.nanoTime();
+      sequence=sourceSequence+1;
+    }
+    sourceSequence=sequence;
+    // Add it to the ring buffer if there is space
+    int h=head;
+    if (h-tail <= ringMask) {
+      int slot=h & ringMask;
+      System.arraycopy(sample, 0, ring, slot*sampleSize, sampleSize);
+      ringTimes[slot]=time;
+      head=h+1;
+    }
+    else
+      overflows++;
+    // and make it the most recent sample
+    synchronized (this) {
+      System.arraycopy(sample, 0, latest, 0, sampleSize);
+      latestTime=time;
+      latestSequence=sequence;
+      newSampleAvailable=true;
+    }
+  }
   
   /**
    * Separate thread to continuously update the buffer with most recent sensor
@@ -51,17 +218,24 @@ public class SampleThread extends AbstractFilter {
   private class Runner extends Thread {
     @Override
     public void run() {
-      long nextTime=System.currentTimeMillis();
-      long currentTime;
+      long nextTime=System.nanoTime();
       while (true) {
+        long interval=period;
         nextTime += interval;
         if (running) {
-          source.fetchSample(buffer,0);
-          newSampleAvailable=true;
+          update();
+        }
+        long delay=nextTime-System.nanoTime();
+        if (-delay >= interval) {
+          // Skip the periods that have been missed rather than trying to catch up
+          long missed=-delay/interval;
+          overruns+=(int) missed;
+          nextTime+=missed*interval;
+        }
+        while (delay > 0) {
+          LockSupport.parkNanos(delay);
+          delay=nextTime-System.nanoTime();
         }
-        currentTime=System.currentTimeMillis();
-        if (currentTime<nextTime)
-          Delay.msDelay(nextTime-currentTime);
       }
     }
 
@@ -79,7 +253,7 @@ public class SampleThread extends AbstractFilter {
    */
   public void setSampleRate(float rate) {
     sampleRate=rate;
-    interval=(int) (1000/sampleRate);
+    period=Math.max(1, (long) (1000000000L/rate));
   }
 
 
@@ -4,28 +4,82 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import lejos.robotics.SampleProvider;
 
+/**
+ * Provides the samples published by a {@link PublishFilter}. The stream header is read
+ * when the provider is created, after that each sample is decoded from a preallocated
+ * buffer without any memory being allocated.
+ */
 public class SubscribedProvider implements SampleProvider {
 	protected DateFormat formatter = new SimpleDateFormat("HH:mm:ss:SSS");
 	private int sampleSize;
 	private float[] latest;
 	private PublishedSource source;
 	private DataInputStream dis;
+	private MulticastSocket multicastSocket;
+	private DatagramPacket packet;
+	private InetAddress sourceAddress;
+	private byte[] frameData;
+	private ByteBuffer frame;
+	private int frameOffset;
 	private long timeStamp;
+	private int sequence;
+	private int lost;
 	private String host;
 	private String name;
 	private boolean active;
 
-	public SubscribedProvider(DataInputStream dis, PublishedSource source) {
+	/**
+	 * Create a provider that reads samples from a TCP stream
+	 * @param dis the stream connected to the source
+	 * @param source the published source
+	 * @throws IOException if the stream header is not valid
+	 */
+	public SubscribedProvider(DataInputStream dis, PublishedSource source) throws IOException {
 		this.dis = dis;
+		this.source = source;
+		if (dis.readInt() != PublishFilter.STREAM_MAGIC || dis.readInt() != PublishFilter.PROTOCOL_VERSION)
+			throw new IOException("Unsupported sample stream");
+		host = dis.readUTF();
+		name = dis.readUTF();
+		sampleSize = dis.readInt();
+		dis.readFloat();
+		frameData = new byte[PublishFilter.FRAME_HEADER_SIZE + 4*sampleSize];
+		init(0);
+	}
+
+	/**
+	 * Create a provider that receives samples sent to a multicast group
+	 * @param socket a socket that has joined the multicast group of the source
+	 * @param source the published source
+	 * @throws IOException if the source address is not known
+	 */
+	public SubscribedProvider(MulticastSocket socket, PublishedSource source) throws IOException {
+		this.multicastSocket = socket;
+		this.source = source;
+		host = source.getHost();
+		name = source.getName();
 		sampleSize = source.sampleSize();
+		sourceAddress = InetAddress.getByName(source.getIpAddress());
+		// Multicast frames are preceded by the port number of the source
+		frameData = new byte[4 + PublishFilter.FRAME_HEADER_SIZE + 4*sampleSize];
+		packet = new DatagramPacket(frameData, frameData.length);
+		init(4);
+	}
+	
+	private void init(int offset) {
+		frame = ByteBuffer.wrap(frameData);
+		frameOffset = offset;
 		latest = new float[sampleSize];
-		this.source = source;
 		active = true;
 	}
 
@@ -37,16 +91,16 @@ public class SubscribedProvider implements SampleProvider {
 	@Override
 	public void fetchSample(float[] sample, int offset) {
 		try {
-			// Timestamp
-			timeStamp = dis.readLong();
-			// Host name
-			host = dis.readUTF();
-			// Sample name
-			name =dis.readUTF();
-			// Sample size
-			sampleSize = dis.readInt();
-			// Sample
-			for(int i=0;i<sampleSize;i++) latest[i] = dis.readFloat();
+			if (multicastSocket != null) {
+				// Ignore anything that is not a frame from our source
+				do {
+					packet.setLength(frameData.length);
+					multicastSocket.receive(packet);
+				} while (packet.getLength() != frameData.length || frame.getInt(0) != source.getPort()
+						|| !sourceAddress.equals(packet.getAddress()));
+			}
+			else
+				dis.readFully(frameData);
 		} catch (EOFException e) {
 			active = false;
 			return;
@@ -55,6 +109,14 @@ public class SubscribedProvider implements SampleProvider {
 			active = false;
 			return;
 		}
+		// Timestamp
+		timeStamp = frame.getLong(frameOffset);
+		// Sequence number, any gap is a lost sample
+		int seq = frame.getInt(frameOffset + 8);
+		if (sequence != 0 && seq - sequence > 1) lost += seq - sequence - 1;
+		sequence = seq;
+		// Sample
+		for(int i=0;i<sampleSize;i++) latest[i] = frame.getFloat(frameOffset + PublishFilter.FRAME_HEADER_SIZE + 4*i);
 
 		for(int i=0;i<sampleSize;i++) sample[offset+i] = latest[i];	
 	}
@@ -75,6 +137,23 @@ public class SubscribedProvider implements SampleProvider {
 		return timeStamp;
 	}
 	
+	/**
+	 * Return the sequence number of the most recent sample
+	 * @return sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Return the number of samples that were not received, either because they
+	 * were dropped by the source or lost in transit.
+	 * @return number of lost samples
+	 */
+	public int getLost() {
+		return lost;
+	}
+	
 	public boolean isActive() {
 		return active;
 	}
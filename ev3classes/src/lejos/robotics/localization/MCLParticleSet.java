@@ -6,12 +6,23 @@ import lejos.robotics.mapping.RangeMap;
 import lejos.robotics.navigation.Move;
 import lejos.robotics.navigation.Pose;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import lejos.robotics.geometry.*;
 import lejos.robotics.localization.MCLParticle;
 
 /**
  * Represents a particle set for the particle filtering algorithm.
+ * <p>
+ * The particles are held as parallel arrays of x, y, heading and weight
+ * rather than as MCLParticle objects, so updating the set does not allocate
+ * any memory. Resampling uses the low variance algorithm and writes the new
+ * set into a second set of arrays that is swapped with the first. When more
+ * than one processor is available and the set is large the weights are
+ * calculated by several threads.
  *
  * @author Lawrie Griffiths
  *
@@ -19,14 +30,19 @@ import lejos.robotics.localization.MCLParticle;
 public class MCLParticleSet implements Transmittable {
   // Constants
   private static final float BIG_FLOAT = 10000f;
+  // Minimum number of particles given to each weight calculation thread
+  private static final int MIN_PARTICLES_PER_THREAD = 1000;
   // Static variables
   public static int maxIterations = 1000;
+  private static ExecutorService executor;
+  private static int executorThreads;
   private float twoSigmaSquared = 400f; // was 250 200
   // Instance variables
   private float distanceNoiseFactor = 0.2f;
   private float angleNoiseFactor = 4f;
   private int numParticles;
-  private MCLParticle[] particles;
+  private float[] x, y, heading, weight;
+  private float[] newX, newY, newHeading, newWeight;
   private RangeMap map;
   private float maxWeight, totalWeight;
   private int border = 10;	// The minimum distance from the edge of the map
@@ -34,6 +50,9 @@ public class MCLParticleSet implements Transmittable {
   private Rectangle boundingRect;
   private static boolean debug = false;
   private int _iterations;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private final Pose tempPose = new Pose();
+  private final Point tempPoint = new Point(0, 0);
 
   /**
    * Create a set of particles randomly distributed within the given map.
@@ -43,12 +62,11 @@ public class MCLParticleSet implements Transmittable {
   public MCLParticleSet(RangeMap map, int numParticles, int border)
   {
     this.map = map;
-    this.numParticles = numParticles;
     this.border = border;
     boundingRect = map.getBoundingRect();
-    particles = new MCLParticle[numParticles];
+    allocate(numParticles);
     for (int i = 0; i < numParticles; i++) {
-      particles[i] = generateParticle();
+      generateParticle(i);
     }
   }
 
@@ -69,20 +87,17 @@ public class MCLParticleSet implements Transmittable {
     if(debug)System.out.println("New  Particles from readings");
     int k = 1;
     this.map = map;
-    this.numParticles = numParticles;
     this.border = border;
     boundingRect = map.getBoundingRect();
-    particles = new MCLParticle[numParticles];
-    MCLParticle particle;
+    allocate(numParticles);
     int i = 0;
     while ( i < numParticles)
     {
       k++;
-      particle = generateParticle();
-      particle.calculateWeight(readings, map, divisor);
-      if(minWeight < particle.getWeight())
+      generateParticle(i);
+      weight[i] = calculateWeight(i, readings, map, divisor, tempPose, tempPoint);
+      if(minWeight < weight[i])
       {
-        particles[i]=particle;
         i++;
         if(debug )System.out.println("generated "+i);
       }
@@ -103,46 +118,65 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
           float radiusNoise, float headingNoise)
   {
     this.map = map;
-    this.numParticles = numParticles;
     border = 0;
     boundingRect = map.getBoundingRect();
-    particles = new MCLParticle[numParticles];
+    allocate(numParticles);
     for (int i = 0; i < numParticles; i++)
     {
       float rad = radiusNoise * (float) random.nextGaussian();
       float theta = (float) (2 * Math.PI * Math.random());
-      float x = initialPose.getX() + rad * (float) Math.cos(theta);
-      float y = initialPose.getY() + rad * (float) Math.sin(theta);
-      float heading = initialPose.getHeading() + headingNoise * (float) random.nextGaussian();
-      particles[i] = new MCLParticle((new Pose(x,y,heading)));
+      x[i] = initialPose.getX() + rad * (float) Math.cos(theta);
+      y[i] = initialPose.getY() + rad * (float) Math.sin(theta);
+      heading[i] = initialPose.getHeading() + headingNoise * (float) random.nextGaussian();
+      weight[i] = 1;
       if(debug){
           System.out.println(" new particle set ");
       }
     }
   }
 
+  /**
+   * Allocate the arrays for a set of particles
+   *
+   * @param n the number of particles
+   */
+  private void allocate(int n) {
+    numParticles = n;
+    x = new float[n];
+    y = new float[n];
+    heading = new float[n];
+    weight = new float[n];
+    newX = new float[n];
+    newY = new float[n];
+    newHeading = new float[n];
+    newWeight = new float[n];
+  }
+
   /**
    * Generate a random particle within the mapped area.
    *
-   * @return the particle
+   * @param i the index of the particle to generate
    */
-  private MCLParticle generateParticle() {
-    float x, y, angle;
-    Rectangle innerRect = new Rectangle(boundingRect.x + border, boundingRect.y + border,
-        boundingRect.width - border * 2, boundingRect.height - border * 2);
+  private void generateParticle(int i) {
+    float px, py;
+    float innerX = boundingRect.x + border;
+    float innerY = boundingRect.y + border;
+    float innerWidth = boundingRect.width - border * 2;
+    float innerHeight = boundingRect.height - border * 2;
     // Generate x, y values in bounding rectangle
     for (;;) { // infinite loop that we break out of when we have
                // generated a particle within the mapped area
-      x = innerRect.x + (((float) Math.random()) * innerRect.width);
-      y = innerRect.y + (((float) Math.random()) * innerRect.height);
+      px = innerX + (((float) Math.random()) * innerWidth);
+      py = innerY + (((float) Math.random()) * innerHeight);
 
-      if (map.inside(new Point(x, y))) break;
+      if (map.inside(new Point(px, py))) break;
     }
 
+    x[i] = px;
+    y[i] = py;
     // Pick a random angle
-    angle = ((float) Math.random()) * 360;
-
-    return new MCLParticle(new Pose(x, y, angle));
+    heading[i] = ((float) Math.random()) * 360;
+    weight[i] = 1;
   }
 
   /**
@@ -166,84 +200,110 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
   }
 
   /**
-   * Get a specific particle
+   * Get a specific particle. The particle is a copy, changing it does not
+   * change the set. Use {@link #getX(int)}, {@link #getY(int)},
+   * {@link #getHeading(int)} and {@link #getWeight(int)} to read the
+   * set without creating objects.
    *
    * @param i the index of the particle
    * @return the particle
    */
   public MCLParticle getParticle(int i) {
-    return particles[i];
+    MCLParticle particle = new MCLParticle(new Pose(x[i], y[i], heading[i]));
+    particle.setWeight(weight[i]);
+    return particle;
   }
 
+  /**
+   * Get the x co-ordinate of a particle
+   *
+   * @param i the index of the particle
+   * @return the x co-ordinate
+   */
+  public float getX(int i) {
+    return x[i];
+  }
 
   /**
-   * Resample the set picking those with higher weights.
+   * Get the y co-ordinate of a particle
    *
-   * Note that the new set has multiple instances of the particles with higher
-   * weights.
+   * @param i the index of the particle
+   * @return the y co-ordinate
+   */
+  public float getY(int i) {
+    return y[i];
+  }
+
+  /**
+   * Get the heading of a particle
    *
-   * @return true iff lost
+   * @param i the index of the particle
+   * @return the heading in degrees
    */
-   /**
-   * Resample the set picking those with higher weights.
+  public float getHeading(int i) {
+    return heading[i];
+  }
+
+  /**
+   * Get the weight of a particle
+   *
+   * @param i the index of the particle
+   * @return the weight
+   */
+  public float getWeight(int i) {
+    return weight[i];
+  }
+
+  /**
+   * Resample the set picking those with higher weights, using the low variance
+   * algorithm: a single random offset selects particles at equal intervals of
+   * the cumulative weight.
    *
    * Note that the new set has multiple instances of the particles with higher
    * weights.
    *
-   * @return true iff lost
+   * @return true if the set was resampled, or was regenerated because all of
+   * the weights were zero
    */
   public boolean resample() {
-    // Rename particles as oldParticles and create a new set
-    MCLParticle[] oldParticles = particles;
-    particles = new MCLParticle[numParticles];
-
-    // Continually pick a random number and select the particles with
-    // weights greater than or equal to it until we have a full
-    // set of particles.
-    int count = 0;
-    int iterations = 0;
-
-    while (count < numParticles) {
-      iterations++;
-      if (iterations >= maxIterations) {
-        if (debug) System.out.println("Lost: count = " + count);
-        if (count > 0) { // Duplicate the ones we have so far
-          for (int i = count; i < numParticles; i++) {
-            particles[i] = new MCLParticle(particles[i % count].getPose());
-            particles[i].setWeight(particles[i % count].getWeight());
-          }
-          return false;
-        } else { // Completely lost - generate a new set of particles
-          for (int i = 0; i < numParticles; i++) {
-            particles[i] = generateParticle();
-          }
-          return true;
-        }
-      }
-      float rand = (float) Math.random();
-      for (int i = 0; i < numParticles && count < numParticles; i++) {
-        if (oldParticles[i].getWeight() >= rand) {
-          Pose p = oldParticles[i].getPose();
-          float x = p.getX();
-          float y = p.getY();
-          float angle = p.getHeading();
-
-          // Create a new instance of the particle and set its weight
-          particles[count] = new MCLParticle(new Pose(x, y, angle));
-          particles[count++].setWeight(oldParticles[i].getWeight());
-        }
+    totalWeight = 0;
+    for (int i = 0; i < numParticles; i++) totalWeight += weight[i];
+    _iterations = 1;
+
+    if (!(totalWeight > 0)) { // Completely lost - generate a new set of particles
+      if (debug) System.out.println("Lost: total weight is zero");
+      for (int i = 0; i < numParticles; i++) {
+        generateParticle(i);
       }
+      return true;
     }
-    return true;
-  }
 
+    float step = totalWeight / numParticles;
+    float u = random.nextFloat() * step;
+    float cumulative = weight[0];
+    int j = 0;
+    for (int i = 0; i < numParticles; i++) {
+      while (u > cumulative && j < numParticles - 1) cumulative += weight[++j];
+      newX[i] = x[j];
+      newY[i] = y[j];
+      newHeading[i] = heading[j];
+      newWeight[i] = weight[j];
+      u += step;
+    }
 
+    // Swap the new set with the old one
+    float[] t = x; x = newX; newX = t;
+    t = y; y = newY; newY = t;
+    t = heading; heading = newHeading; newHeading = t;
+    t = weight; weight = newWeight; newWeight = t;
+    return true;
+  }
 
   /**
    * Calculate the weight for each particle
    * @param rr the robot range readings
    */
-  public boolean  calculateWeights(RangeReadings rr, RangeMap map)
+  public boolean  calculateWeights(final RangeReadings rr, final RangeMap map)
   {
    if(debug) System.out.println(" Calc weights using ranges:  "+rr.getRange(0)+" "+rr.getRange(1)+" "
            +rr.getRange(2)+" A "
@@ -253,14 +313,19 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
      if(debug) System.out.println("range set incomplete");
      return false;
    }
-   int zeros= 0;
+    int n = Math.min(threads, numParticles / MIN_PARTICLES_PER_THREAD);
+    if (n > 1) {
+      calculateWeightsParallel(rr, map, n);
+    } else {
+      calculateWeights(rr, map, 0, numParticles, tempPose, tempPoint);
+    }
+
+    int zeros= 0;
     maxWeight = 0f;
     for (int i = 0; i < numParticles; i++)
     {
-      particles[i].calculateWeight(rr, map, twoSigmaSquared);
-         float weight = particles[i].getWeight();
-      if (weight > maxWeight) maxWeight = weight;
-         if(weight == 0 )zeros++;
+      if (weight[i] > maxWeight) maxWeight = weight[i];
+      if (weight[i] == 0) zeros++;
     }
 
    if(debug) System.out.println("Calc Weights Max wt " +maxWeight+" Zeros "+zeros);
@@ -268,6 +333,80 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
     return true;
   }
 
+  /**
+   * Split the weight calculation between several threads
+   */
+  private void calculateWeightsParallel(final RangeReadings rr, final RangeMap map, int n) {
+    ExecutorService pool = getExecutor(n);
+    Future<?>[] results = new Future<?>[n];
+    for (int t = 0; t < n; t++) {
+      final int from = (int) ((long) numParticles * t / n);
+      final int to = (int) ((long) numParticles * (t + 1) / n);
+      results[t] = pool.submit(new Runnable() {
+        public void run() {
+          calculateWeights(rr, map, from, to, new Pose(), new Point(0, 0));
+        }
+      });
+    }
+    try {
+      for (int t = 0; t < n; t++) results[t].get();
+    } catch (Exception e) {
+      throw new RuntimeException("Weight calculation failed", e);
+    }
+  }
+
+  /**
+   * Return the shared pool of weight calculation threads, creating it if it
+   * does not have enough threads.
+   */
+  private static synchronized ExecutorService getExecutor(int n) {
+    if (executor == null || executorThreads < n) {
+      if (executor != null) executor.shutdown();
+      executor = Executors.newFixedThreadPool(n, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "MCL weights");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      executorThreads = n;
+    }
+    return executor;
+  }
+
+  /**
+   * Calculate the weights of a range of particles
+   */
+  private void calculateWeights(RangeReadings rr, RangeMap map, int from, int to, Pose pose, Point point) {
+    for (int i = from; i < to; i++) {
+      weight[i] = calculateWeight(i, rr, map, twoSigmaSquared, pose, point);
+    }
+  }
+
+  /**
+   * Calculate the weight for a particle by comparing its readings with the
+   * robot's readings. This is the same calculation as MCLParticle.calculateWeight
+   * using the supplied objects for working storage.
+   */
+  private float calculateWeight(int i, RangeReadings rr, RangeMap map, float divisor, Pose pose, Point point) {
+    point.x = x[i];
+    point.y = y[i];
+    if (rr.getNumReadings() > 0 && !map.inside(point)) return 0;
+    float w = 1;
+    pose.setLocation(x[i], y[i]);
+    for (int j = 0; j < rr.getNumReadings(); j++) {
+      pose.setHeading(heading[i] + rr.getAngle(j));
+      float range = map.range(pose);
+      if (range < 0) {
+        if(debug) System.out.println("zero wt"+pose);
+        return 0;
+      }
+      float diff = rr.getRange(j) - range;
+      w *= (float) Math.exp(-(diff * diff) / divisor);
+    }
+    return w;
+  }
+
   /**
    * Apply a move to each particle
    *
@@ -276,8 +415,17 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
   public void applyMove(Move move) {
     if(debug)System.out.println("particles applyMove "+move.getMoveType());
 	maxWeight = 0f;
+    float distance = move.getDistanceTraveled();
+    float angle = move.getAngleTurned();
     for (int i = 0; i < numParticles; i++) {
-      particles[i].applyMove(move, distanceNoiseFactor, angleNoiseFactor);
+      // Apply the move with a bit of random noise, as MCLParticle.applyMove
+      double h = Math.toRadians(heading[i]);
+      float ym = distance * (float) Math.sin(h);
+      float xm = distance * (float) Math.cos(h);
+      x[i] = (float) (x[i] + xm + (distanceNoiseFactor * xm * random.nextGaussian()));
+      y[i] = (float) (y[i] + ym + (distanceNoiseFactor * ym * random.nextGaussian()));
+      float newHeading = (float) (heading[i] + angle + (angleNoiseFactor * random.nextGaussian()));
+      heading[i] = (float) ((int) (newHeading + 0.5f) % 360);
     }
        if(debug)System.out.println("particles applyMove Exit");
   }
@@ -289,7 +437,7 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
    */
   public float getMaxWeight() {
     float wt = 0;
-    for (int i = 0; i < particles.length; i ++ ) wt = Math.max(wt,particles[i].getWeight());
+    for (int i = 0; i < numParticles; i ++ ) wt = Math.max(wt,weight[i]);
     return wt;
   }
 
@@ -336,13 +484,23 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
   }
 
   /**
-   * Set the maximum iterations for the resample algorithm
+   * Set the maximum iterations for the resample algorithm. The low variance
+   * algorithm always completes in one pass, so this is no longer used.
    * @param max the maximum iterations
    */
   public void setMaxIterations(int max) {
     maxIterations = max;
   }
 
+  /**
+   * Set the number of threads used to calculate the weights. Each thread is
+   * given at least 1000 particles.
+   * @param threads the number of threads, defaults to the number of processors
+   */
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
   /**
    * Find the index of the particle closest to a given co-ordinates.
    * This is used for diagnostic purposes.
@@ -355,10 +513,9 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
     float minDistance = BIG_FLOAT;
     int index = -1;
     for (int i = 0; i < numParticles; i++) {
-      Pose pose = particles[i].getPose();
-      float distance = (float) Math.sqrt((double) (
-          (pose.getX() - x) * (pose.getX() - x)) +
-          ((pose.getY() - y) * (pose.getY() - y)));
+      float dx = this.x[i] - x;
+      float dy = this.y[i] - y;
+      float distance = (float) Math.sqrt((double) (dx * dx) + (dy * dy));
       if (distance < minDistance) {
         minDistance = distance;
         index = i;
@@ -377,15 +534,12 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
 	  dos.writeFloat(maxWeight);
       dos.writeInt(numParticles());
       for (int i = 0; i < numParticles(); i++) {
-          MCLParticle part = getParticle(i);
-          Pose pose = part.getPose();
-          float weight = part.getWeight();
-          dos.writeFloat(pose.getX());
-          dos.writeFloat(pose.getY());
-          dos.writeFloat(pose.getHeading());
-          dos.writeFloat(weight);
-          dos.flush();
+          dos.writeFloat(x[i]);
+          dos.writeFloat(y[i]);
+          dos.writeFloat(heading[i]);
+          dos.writeFloat(weight[i]);
       }
+      dos.flush();
   }
 
   public int getIterations() {
@@ -398,17 +552,14 @@ public MCLParticleSet(RangeMap map, int numParticles, Pose initialPose,
    */
   public void loadObject(DataInputStream dis) throws IOException {
 	maxWeight = dis.readFloat();
-	numParticles = dis.readInt();
-    MCLParticle[] newParticles = new MCLParticle[numParticles];
+	int n = dis.readInt();
+    if (x == null || n != x.length) allocate(n);
     for (int i = 0; i < numParticles; i++) {
-      float x = dis.readFloat();
-      float y = dis.readFloat();
-      float angle = dis.readFloat();
-      Pose pose = new Pose(x, y, angle);
-      newParticles[i] = new MCLParticle(pose);
-      newParticles[i].setWeight(dis.readFloat());
+      x[i] = dis.readFloat();
+      y[i] = dis.readFloat();
+      heading[i] = dis.readFloat();
+      weight[i] = dis.readFloat();
     }
-    particles = newParticles;
   }
 
   /**
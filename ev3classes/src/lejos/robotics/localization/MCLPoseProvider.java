@@ -344,16 +344,15 @@ public class MCLPoseProvider implements PoseProvider, MoveListener, Transmittabl
 
     for (int i = 0; i < numParticles; i++)
     {
-      Pose p = particles.getParticle(i).getPose();
-      float x = p.getX();
-      float y = p.getY();
+      float x = particles.getX(i);
+      float y = particles.getY(i);
       //float weight = particles.getParticle(i).getWeight();
       float weight = 1; // weight is historic at this point, as resample has been done
       estimatedX += (x * weight);
       varX += (x * x * weight);
       estimatedY += (y * weight);
       varY += (y * y * weight);
-      float head = p.getHeading();
+      float head = particles.getHeading(i);
       estimatedAngle += (head * weight);
       varH += (head * head * weight);
       totalWeights += weight;
@@ -0,0 +1,183 @@
+package lejos.robotics.mapping;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Point;
+
+/**
+ * A uniform grid over the lines of a {@link LineMap}, used to find the lines
+ * near a ray without testing every line in the map. Each cell holds the lines
+ * whose bounding box overlaps the cell. The grid is built once and not changed,
+ * so it can be used by several threads at the same time.
+ */
+class LineGrid {
+  // Maximum number of cells along either axis
+  private static final int MAX_CELLS = 512;
+  // Lines are added to any cell within this fraction of a cell of their bounding box
+  private static final float MARGIN = 1e-3f;
+  
+  private final Line[] lines;
+  private final float minX, minY, cellSize;
+  private final int cols, rows;
+  private final int[] cellStart;
+  private final int[] cellLines;
+
+  /**
+   * Build the grid for a set of lines
+   * 
+   * @param lines the lines
+   */
+  LineGrid(Line[] lines) {
+    this.lines = lines;
+    float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE;
+    float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+    for (int i = 0; i < lines.length; i++) {
+      Line l = lines[i];
+      x0 = Math.min(x0, Math.min(l.x1, l.x2));
+      y0 = Math.min(y0, Math.min(l.y1, l.y2));
+      x1 = Math.max(x1, Math.max(l.x1, l.x2));
+      y1 = Math.max(y1, Math.max(l.y1, l.y2));
+    }
+    float width = Math.max(x1 - x0, 1e-3f);
+    float height = Math.max(y1 - y0, 1e-3f);
+    // Aim for about one line per cell
+    float size = (float) Math.sqrt(width * height / Math.max(lines.length, 1));
+    size = Math.max(size, Math.max(width, height) / MAX_CELLS);
+    minX = x0;
+    minY = y0;
+    cellSize = size;
+    cols = Math.min(MAX_CELLS, (int) (width / size) + 1);
+    rows = Math.min(MAX_CELLS, (int) (height / size) + 1);
+    
+    // Count the lines in each cell, then fill the cells
+    cellStart = new int[cols * rows + 1];
+    addLines(null);
+    for (int cell = 0; cell < cols * rows; cell++) cellStart[cell + 1] += cellStart[cell];
+    cellLines = new int[cellStart[cols * rows]];
+    addLines(new int[cols * rows]);
+  }
+  
+  /**
+   * Add each line to the cells its bounding box overlaps
+   * 
+   * @param fill null to count the lines in each cell, or the number of lines added to each cell so far
+   */
+  private void addLines(int[] fill) {
+    float margin = MARGIN * cellSize;
+    for (int i = 0; i < lines.length; i++) {
+      Line l = lines[i];
+      int c0 = col(Math.min(l.x1, l.x2) - margin), c1 = col(Math.max(l.x1, l.x2) + margin);
+      int r0 = row(Math.min(l.y1, l.y2) - margin), r1 = row(Math.max(l.y1, l.y2) + margin);
+      for (int r = r0; r <= r1; r++) {
+        for (int c = c0; c <= c1; c++) {
+          int cell = r * cols + c;
+          if (fill == null) cellStart[cell + 1]++;
+          else cellLines[cellStart[cell] + fill[cell]++] = i;
+        }
+      }
+    }
+  }
+  
+  private int col(float x) {
+    int c = (int) Math.floor((x - minX) / cellSize);
+    return (c < 0 ? 0 : (c >= cols ? cols - 1 : c));
+  }
+
+  private int row(float y) {
+    int r = (int) Math.floor((y - minY) / cellSize);
+    return (r < 0 ? 0 : (r >= rows ? rows - 1 : r));
+  }
+  
+  /**
+   * Find the distance from the start of a ray to the nearest line it
+   * intersects. Only the cells the ray passes through are visited, nearest
+   * first, and the search stops once no closer line can be found.
+   * 
+   * @param ray the ray
+   * @return the distance or -1 if the ray does not intersect a line
+   */
+  float range(Line ray) {
+    float gx = (ray.x1 - minX) / cellSize, gy = (ray.y1 - minY) / cellSize;
+    float dx = (ray.x2 - ray.x1) / cellSize, dy = (ray.y2 - ray.y1) / cellSize;
+    float length = ray.length();
+    
+    // Clip the ray to the grid
+    float t0 = 0, t1 = 1;
+    if (dx != 0) {
+      float ta = -gx / dx, tb = (cols - gx) / dx;
+      t0 = Math.max(t0, Math.min(ta, tb));
+      t1 = Math.min(t1, Math.max(ta, tb));
+    } else if (gx < 0 || gx > cols) return -1;
+    if (dy != 0) {
+      float ta = -gy / dy, tb = (rows - gy) / dy;
+      t0 = Math.max(t0, Math.min(ta, tb));
+      t1 = Math.min(t1, Math.max(ta, tb));
+    } else if (gy < 0 || gy > rows) return -1;
+    if (t0 > t1) return -1;
+    
+    int c = clamp((int) Math.floor(gx + t0 * dx), cols);
+    int r = clamp((int) Math.floor(gy + t0 * dy), rows);
+    int stepC = (dx > 0 ? 1 : -1), stepR = (dy > 0 ? 1 : -1);
+    float tDeltaC = (dx != 0 ? Math.abs(1 / dx) : Float.MAX_VALUE);
+    float tDeltaR = (dy != 0 ? Math.abs(1 / dy) : Float.MAX_VALUE);
+    float tMaxC = (dx != 0 ? ((dx > 0 ? c + 1 : c) - gx) / dx : Float.MAX_VALUE);
+    float tMaxR = (dy != 0 ? ((dy > 0 ? r + 1 : r) - gy) / dy : Float.MAX_VALUE);
+    float best = -1;
+    float tEnter = t0;
+    float slack = MARGIN * cellSize;
+    
+    for (;;) {
+      // Lines that intersect in later cells are further away than the entry to that cell
+      if (best >= 0 && best < tEnter * length - slack) break;
+      int cell = r * cols + c;
+      for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+        Point p = lines[cellLines[i]].intersectsAt(ray);
+        if (p == null) continue;
+        float d = (float) Math.sqrt((ray.x1 - p.x) * (ray.x1 - p.x) + (ray.y1 - p.y) * (ray.y1 - p.y));
+        if (best < 0 || d < best) best = d;
+      }
+      if (tMaxC < tMaxR) {
+        tEnter = tMaxC;
+        tMaxC += tDeltaC;
+        c += stepC;
+        if (c < 0 || c >= cols) break;
+      } else {
+        tEnter = tMaxR;
+        tMaxR += tDeltaR;
+        r += stepR;
+        if (r < 0 || r >= rows) break;
+      }
+      if (tEnter > t1) break;
+    }
+    return best;
+  }
+  
+  /**
+   * Count the lines crossed by a horizontal ray from a point to the left.
+   * A line can be in several of the cells visited, it is only counted in the
+   * cell that holds the point of intersection.
+   * 
+   * @param ray a horizontal ray pointing to the left
+   * @return the number of lines it crosses
+   */
+  int crossings(Line ray) {
+    int r = row(ray.y1);
+    int c0 = col(ray.x2), c1 = col(ray.x1);
+    int count = 0;
+    for (int c = c0; c <= c1; c++) {
+      int cell = r * cols + c;
+      for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+        Point p = lines[cellLines[i]].intersectsAt(ray);
+        if (p != null && clamp(col(p.x), c0, c1) == c) count++;
+      }
+    }
+    return count;
+  }
+  
+  private static int clamp(int v, int n) {
+    return (v < 0 ? 0 : (v >= n ? n - 1 : v));
+  }
+
+  private static int clamp(int v, int lo, int hi) {
+    return (v < lo ? lo : (v > hi ? hi : v));
+  }
+}
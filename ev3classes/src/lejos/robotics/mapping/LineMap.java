@@ -9,14 +9,22 @@ import lejos.robotics.navigation.Pose;
 
 
 /**
- * A map of a room or other closed environment, represented by line segments
+ * A map of a room or other closed environment, represented by line segments.
+ * <p>
+ * Maps with more than a few lines are indexed by a uniform grid when they are
+ * created or loaded, so that {@link #range(Pose)} and {@link #inside(Point)}
+ * only test the lines near the ray. The lines should not be changed after the
+ * map has been created.
  * 
  * @author Lawrie Griffiths
  * 
  */
 public class LineMap implements RangeMap, Transmittable {
+  // Maps with fewer lines than this are not worth indexing
+  private static final int MIN_INDEXED_LINES = 16;
   private Line[] lines;
   private Rectangle boundingRect;
+  private LineGrid grid;
 
   /**
    * Calculate the range of a robot to the nearest wall
@@ -28,6 +36,7 @@ public class LineMap implements RangeMap, Transmittable {
     Line l = new  Line(pose.getX(), pose.getY(), pose.getX() + 254f
     	        * (float) Math.cos(Math.toRadians(pose.getHeading())), pose.getY() + 254f
     	        * (float) Math.sin(Math.toRadians(pose.getHeading())));
+    if (grid != null) return grid.range(l);
     Line rl = null;
 
     for (int i = 0; i < lines.length; i++) {
@@ -51,6 +60,7 @@ public class LineMap implements RangeMap, Transmittable {
   public LineMap(Line[] lines, Rectangle boundingRect) {
     this.lines = lines;
     this.boundingRect = boundingRect;
+    buildIndex();
   }
   
   /**
@@ -75,7 +85,8 @@ public class LineMap implements RangeMap, Transmittable {
 
     // Count intersections
     int count = 0;
-    for (int i = 0; i < lines.length; i++) {
+    if (grid != null) count = grid.crossings(l);
+    else for (int i = 0; i < lines.length; i++) {
       if (lines[i].intersectsAt(l) != null) count++;
     }
     // We are inside if the number of intersections is odd
@@ -127,6 +138,14 @@ public class LineMap implements RangeMap, Transmittable {
         lines[i] = new Line(x1,y1,x2,y2);
       }     
       boundingRect = new Rectangle(dis.readFloat(),dis.readFloat(),dis.readFloat(),dis.readFloat());
+      buildIndex();
+  }
+  
+  /**
+   * Build the grid used to find the lines near a ray
+   */
+  private void buildIndex() {
+    grid = (lines != null && lines.length >= MIN_INDEXED_LINES ? new LineGrid(lines) : null);
   }
   
   /**
@@ -0,0 +1,404 @@
+package lejos.robotics.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import lejos.robotics.RangeReading;
+import lejos.robotics.RangeReadings;
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Point2D;
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.navigation.Navigator;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.navigation.WaypointListener;
+import lejos.robotics.objectdetection.Feature;
+import lejos.robotics.objectdetection.FeatureDetector;
+import lejos.robotics.objectdetection.FeatureListener;
+import lejos.robotics.objectdetection.RangeFeature;
+
+/**
+ * This path finder uses the D* Lite algorithm to plan over an {@link EightWayGridMesh}, and to repair the plan
+ * when the mesh changes instead of planning again from scratch. The search runs backwards from the destination,
+ * and the distance to the destination of each node it has reached is kept between calls. When cells of the mesh
+ * are blocked or freed only the nodes whose distance changes are searched again, and when the robot moves the
+ * existing distances stay valid, so later calls to {@link #findRoute(Pose, Waypoint)} with the same destination
+ * usually take a small fraction of the time of the first.<p>
+ * The path finder can also steer a {@link Navigator}. Start it with {@link #navigate(Navigator, Waypoint)} and add
+ * it as a listener to a {@link lejos.robotics.objectdetection.RangeFeatureDetector}. Each detected feature that
+ * is not already blocked in the mesh is added as an obstacle and the route is repaired. The Navigator is only
+ * given the new path if the route has changed.<p>
+ * NOTE: The path finder keeps the destination node in the mesh while it is planning for it.
+ * @see EightWayGridMesh
+ */
+public class DStarLitePathFinder implements PathFinder, FeatureListener {
+	
+	private static final float INFINITY = Float.POSITIVE_INFINITY;
+	// Number of neighbors the start and goal nodes are connected to
+	private static final int LINKS = 4;
+	
+	private final EightWayGridMesh mesh;
+	private final HashMap <Node, State> states = new HashMap <Node, State> ();
+	private State [] heap = new State[64];
+	private int size = 0;
+	private float km = 0;
+	private Node start = null, goal = null;
+	private Waypoint destination = null;
+	private float lastX, lastY;
+	private int expanded = 0;
+	private boolean relink = false;
+	private Navigator navigator = null;
+	private ArrayList <WaypointListener> listeners;
+	
+	/**
+	 * Instantiates a D* Lite path finder that plans over a mesh, and follows changes to the mesh.
+	 * @param mesh The grid mesh.
+	 */
+	public DStarLitePathFinder(EightWayGridMesh mesh) {
+		this.mesh = mesh;
+		mesh.addListener(new EightWayGridMesh.Listener() {
+			public void nodeChanged(Node node) {
+				changed(node);
+			}
+			
+			public void regenerated() {
+				reset();
+			}
+		});
+	}
+	
+	/**
+	 * The search state of a node
+	 */
+	private static class State {
+		final Node node;
+		float g = INFINITY; // distance to the goal
+		float rhs = INFINITY; // distance to the goal through the best neighbor
+		float k1, k2; // priority
+		int heapIndex = -1;
+		
+		State(Node node) {
+			this.node = node;
+		}
+	}
+	
+	public synchronized Path findRoute(Pose start, Waypoint goal) throws DestinationUnreachableException {
+		if(destination == null || destination.x != goal.x || destination.y != goal.y) plan(goal);
+		else if(relink) relinkGoal();
+		moveStart(start.getX(), start.getY());
+		
+		expanded = 0;
+		computeShortestPath();
+		if(state(this.start).rhs == INFINITY) throw new DestinationUnreachableException();
+		return extractPath();
+	}
+	
+	/**
+	 * Returns the number of nodes that were expanded by the last call to findRoute().
+	 * @return the number of nodes
+	 */
+	public synchronized int getNodesExpanded() {
+		return expanded;
+	}
+	
+	/**
+	 * Plans a route from the current pose of the Navigator to a destination and starts the Navigator
+	 * following it. The route is repaired, and the Navigator given the new route, when features are detected.
+	 * @param navigator The navigator.
+	 * @param goal The destination.
+	 * @throws DestinationUnreachableException if there is no route to the destination
+	 */
+	public synchronized void navigate(Navigator navigator, Waypoint goal) throws DestinationUnreachableException {
+		this.navigator = null;
+		Path path = findRoute(navigator.getPoseProvider().getPose(), goal);
+		path.remove(0);
+		this.navigator = navigator;
+		navigator.followPath(path);
+	}
+	
+	/**
+	 * Adds the detected features to the mesh as obstacles and repairs the route being followed by the Navigator.
+	 */
+	public synchronized void featureDetected(Feature feature, FeatureDetector detector) {
+		Pose pose = (feature instanceof RangeFeature ? ((RangeFeature) feature).getPose() : null);
+		if(pose == null && navigator != null) pose = navigator.getPoseProvider().getPose();
+		if(pose == null) return;
+		
+		boolean changed = false;
+		RangeReadings readings = feature.getRangeReadings();
+		for(int i=0;i<readings.size();i++) {
+			RangeReading reading = readings.get(i);
+			if(reading.invalidReading()) continue;
+			double angle = Math.toRadians(pose.getHeading() + reading.getAngle());
+			float x = pose.getX() + reading.getRange() * (float) Math.cos(angle);
+			float y = pose.getY() + reading.getRange() * (float) Math.sin(angle);
+			if(mesh.isBlocked(x, y)) continue;
+			mesh.addObstacle(new Line(x, y, x, y));
+			changed = true;
+		}
+		if(!changed || navigator == null || destination == null || navigator.pathCompleted()) return;
+		
+		try {
+			Path path = findRoute(navigator.getPoseProvider().getPose(), destination);
+			path.remove(0);
+			if(samePath(path, navigator.getPath())) return;
+			navigator.setPath(path);
+			navigator.followPath();
+		} catch(DestinationUnreachableException e) {
+			navigator.stop();
+			navigator = null;
+		}
+	}
+	
+	public void addListener(WaypointListener wpl) {
+		if(listeners == null) listeners = new ArrayList <WaypointListener> ();
+		listeners.add(wpl);
+	}
+	
+	public void startPathFinding(Pose start, Waypoint end) {
+		Path solution;
+		try {
+			solution = findRoute(start, end);
+		} catch(DestinationUnreachableException e) {
+			return;
+		}
+		if(listeners != null) {
+			for(WaypointListener l : listeners) {
+				for(int i=0;i<solution.size();i++) l.addWaypoint(solution.get(i));
+				l.pathGenerated();
+			}
+		}
+	}
+	
+	/**
+	 * Start planning for a new destination.
+	 */
+	private void plan(Waypoint goal) {
+		reset();
+		destination = goal;
+		this.goal = new Node(goal.x, goal.y);
+		mesh.addNode(this.goal, LINKS);
+		State s = state(this.goal);
+		s.rhs = 0;
+		insert(s);
+	}
+	
+	/**
+	 * Forget the search, for example because the mesh has been rebuilt.
+	 */
+	private synchronized void reset() {
+		if(start != null) mesh.removeNode(start);
+		if(goal != null) mesh.removeNode(goal);
+		start = goal = null;
+		destination = null;
+		states.clear();
+		for(int i=0;i<size;i++) heap[i] = null;
+		size = 0;
+		km = 0;
+	}
+	
+	/**
+	 * Replace the start node with one at the new position of the robot.
+	 */
+	private void moveStart(float x, float y) {
+		Node old = start;
+		start = new Node(x, y);
+		if(old != null) {
+			// The old start node may have been part of the best route between its neighbors
+			ArrayList <Node> around = new ArrayList <Node> (old.getNeighbors());
+			mesh.removeNode(old);
+			State s = states.remove(old);
+			if(s != null) remove(s);
+			for(int i=0;i<around.size();i++) updateVertex(around.get(i));
+			km += Point2D.distance(lastX, lastY, x, y);
+		}
+		lastX = x;
+		lastY = y;
+		mesh.addNode(start, LINKS);
+		updateVertex(start);
+	}
+	
+	/**
+	 * Connect the goal node to the mesh again after the mesh has changed, as obstacles
+	 * may now be in the way of some of its connections, or have been removed.
+	 */
+	private void relinkGoal() {
+		ArrayList <Node> around = new ArrayList <Node> (goal.getNeighbors());
+		mesh.removeNode(goal);
+		mesh.addNode(goal, LINKS);
+		around.addAll(goal.getNeighbors());
+		for(int i=0;i<around.size();i++) updateVertex(around.get(i));
+		relink = false;
+	}
+	
+	private synchronized void changed(Node node) {
+		if(goal == null) return;
+		updateVertex(node);
+		relink = true;
+	}
+	
+	private void computeShortestPath() {
+		State s = state(start);
+		while(size > 0 && (less(heap[0].k1, heap[0].k2, key1(s), key2(s)) || s.rhs != s.g)) {
+			State u = heap[0];
+			expanded++;
+			float k1 = key1(u), k2 = key2(u);
+			if(less(u.k1, u.k2, k1, k2)) {
+				// The start has moved since u was queued
+				u.k1 = k1;
+				u.k2 = k2;
+				siftDown(u, 0);
+			} else if(u.g > u.rhs) {
+				u.g = u.rhs;
+				remove(u);
+				updateNeighbors(u.node);
+			} else {
+				u.g = INFINITY;
+				updateVertex(u.node);
+				updateNeighbors(u.node);
+			}
+		}
+	}
+	
+	private void updateNeighbors(Node node) {
+		Collection <Node> neighbors = node.getNeighbors();
+		for(Node n : neighbors) updateVertex(n);
+	}
+	
+	/**
+	 * Recalculate the distance of a node through its neighbors, and queue it if that differs
+	 * from its current distance.
+	 */
+	private void updateVertex(Node node) {
+		State s = state(node);
+		if(node != goal) {
+			float rhs = INFINITY;
+			for(Node n : node.getNeighbors()) {
+				State t = states.get(n);
+				if(t == null || t.g == INFINITY) continue;
+				rhs = Math.min(rhs, node.calculateG(n) + t.g);
+			}
+			s.rhs = rhs;
+		}
+		remove(s);
+		if(s.g != s.rhs) {
+			s.k1 = key1(s);
+			s.k2 = key2(s);
+			insert(s);
+		}
+	}
+	
+	/**
+	 * Follow the best neighbors from the start to the goal. Waypoints are only added where
+	 * the route changes direction.
+	 */
+	private Path extractPath() throws DestinationUnreachableException {
+		Path path = new Path();
+		path.add(new Waypoint(start.x, start.y));
+		Node n = start, prev = null;
+		int steps = states.size();
+		while(n != goal) {
+			Node next = null;
+			float best = INFINITY;
+			for(Node m : n.getNeighbors()) {
+				State t = states.get(m);
+				if(t == null) continue;
+				float d = n.calculateG(m) + t.g;
+				if(d < best) {
+					best = d;
+					next = m;
+				}
+			}
+			if(next == null || --steps < 0) throw new DestinationUnreachableException();
+			if(prev != null && !collinear(prev, n, next)) path.add(new Waypoint(n.x, n.y));
+			prev = n;
+			n = next;
+		}
+		path.add(destination);
+		return path;
+	}
+	
+	private static boolean collinear(Node a, Node b, Node c) {
+		float cross = (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+		return Math.abs(cross) < 1e-3f * (Math.abs(b.x - a.x) + Math.abs(b.y - a.y)) * (Math.abs(c.x - b.x) + Math.abs(c.y - b.y));
+	}
+	
+	private static boolean samePath(Path a, Path b) {
+		if(b == null || a.size() != b.size()) return false;
+		for(int i=0;i<a.size();i++) {
+			if(a.get(i).x != b.get(i).x || a.get(i).y != b.get(i).y) return false;
+		}
+		return true;
+	}
+	
+	private State state(Node node) {
+		State s = states.get(node);
+		if(s == null) {
+			s = new State(node);
+			states.put(node, s);
+		}
+		return s;
+	}
+	
+	private float key1(State s) {
+		return Math.min(s.g, s.rhs) + (float) Point2D.distance(start.x, start.y, s.node.x, s.node.y) + km;
+	}
+	
+	private static float key2(State s) {
+		return Math.min(s.g, s.rhs);
+	}
+	
+	private static boolean less(float a1, float a2, float b1, float b2) {
+		return a1 < b1 || (a1 == b1 && a2 < b2);
+	}
+	
+	private void insert(State s) {
+		if(size == heap.length) {
+			State [] larger = new State[size * 2];
+			System.arraycopy(heap, 0, larger, 0, size);
+			heap = larger;
+		}
+		siftUp(s, size++);
+	}
+	
+	private void remove(State s) {
+		int i = s.heapIndex;
+		if(i < 0) return;
+		s.heapIndex = -1;
+		State last = heap[--size];
+		heap[size] = null;
+		if(i == size) return;
+		if(less(last.k1, last.k2, s.k1, s.k2)) siftUp(last, i);
+		else siftDown(last, i);
+	}
+	
+	private void siftUp(State s, int i) {
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			State p = heap[parent];
+			if(!less(s.k1, s.k2, p.k1, p.k2)) break;
+			heap[i] = p;
+			p.heapIndex = i;
+			i = parent;
+		}
+		heap[i] = s;
+		s.heapIndex = i;
+	}
+	
+	private void siftDown(State s, int i) {
+		int half = size >> 1;
+		while(i < half) {
+			int child = 2 * i + 1;
+			State c = heap[child];
+			int right = child + 1;
+			if(right < size && less(heap[right].k1, heap[right].k2, c.k1, c.k2)) c = heap[child = right];
+			if(!less(c.k1, c.k2, s.k1, s.k2)) break;
+			heap[i] = c;
+			c.heapIndex = i;
+			i = child;
+		}
+		heap[i] = s;
+		s.heapIndex = i;
+	}
+}
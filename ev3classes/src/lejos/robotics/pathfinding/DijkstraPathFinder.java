@@ -150,8 +150,8 @@ public DijkstraPathFinder(LineMap map)
  }
   protected void initialize()
   {
-    _reached = new ArrayList<Node>();
-    _candidate = new ArrayList<Node>();
+    _reached.clear();
+    _candidate.clear();
   }
 
   /**
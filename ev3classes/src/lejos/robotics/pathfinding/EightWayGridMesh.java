@@ -0,0 +1,536 @@
+package lejos.robotics.pathfinding;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * A grid of nodes, each connected to up to eight neighbors, that is stored as a bit set of blocked grid cells
+ * rather than as a set of connected node objects. The bit set is built once from the map by marking every cell
+ * that is within the clearance of a map line, which is much faster than testing every connection against every
+ * line, and uses one bit per grid cell.<p>
+ * Node objects are only created for the cells that a search reaches, and their neighbors are worked out from the
+ * bit set each time they are asked for, so a node holds no list of grid neighbors. Two free cells next to each other are connected. Diagonal connections are
+ * only made if both of the cells beside the diagonal are free, so paths do not cut corners. Cells are also blocked
+ * if they are within 0.71 grid spaces of a line, so no connection can cross a line whatever the clearance.<p>
+ * Obstacles that are found while the robot is moving can be added with {@link #addObstacle(Line)} or
+ * {@link #setBlocked(float, float, boolean)}. Only the cells near the obstacle are changed, and nodes that were
+ * already created stay in use, so the mesh does not have to be regenerated.<p>
+ * The grid nodes can be searched with any {@link SearchAlgorithm}. {@link JumpPointSearchAlgorithm} and
+ * {@link ThetaStarSearchAlgorithm} use the grid directly to search faster and to find shorter paths.
+ * @see FourWayGridMesh
+ */
+public class EightWayGridMesh implements NavigationMesh {
+	// Cells within this many grid spaces of a line are always blocked, so that no connection can cross a line
+	private static final float MIN_RADIUS = 0.7072f;
+	
+	private LineMap map = null;
+	private float clearance;
+	private float gridspace;
+	
+	private float x0, y0;
+	private int cols, rows;
+	private long [] blocked = null;
+	private Cell [] cells;
+	private ArrayList <Line> obstacles = new ArrayList <Line> ();
+	private ArrayList <Node> added = new ArrayList <Node> ();
+	private ArrayList <Listener> listeners = new ArrayList <Listener> ();
+	
+	/**
+	 * Informed of the grid nodes whose connections change when cells are blocked or freed, and
+	 * when the whole grid is rebuilt.
+	 */
+	interface Listener {
+		void nodeChanged(Node node);
+		void regenerated();
+	}
+	
+	/**
+	 * Instantiates a grid mesh of nodes which won't interconnect between any map geometry. Will also keep away
+	 * the set parameter from map geometry. Grid spacing is adjustable via the constructor. 
+	 * @param map The map containing geometry.
+	 * @param gridSpace The size of each grid square.
+	 * @param clearance The safety zone between all nodes/connections and the map geometry.
+	 */
+	public EightWayGridMesh(LineMap map, float gridSpace, float clearance) {
+		setMap(map);
+		setClearance(clearance);
+		setGridSpacing(gridSpace);
+	}
+	
+	/**
+	 * Returns the free nodes of the grid, followed by the nodes added with addNode(). Iterating over the collection
+	 * creates a node object for each free cell, so a search should be started from a single node instead.
+	 */
+	public Collection <Node> getMesh() {
+		if(blocked == null) regenerate();
+		return new AbstractCollection <Node> () {
+			public Iterator <Node> iterator() {
+				return new Iterator <Node> () {
+					private int next = nextFree(0);
+					private Iterator <Node> rest = added.iterator();
+					
+					public boolean hasNext() {
+						return next < cells.length || rest.hasNext();
+					}
+					
+					public Node next() {
+						if(next >= cells.length) return rest.next();
+						Node n = cell(next);
+						next = nextFree(next + 1);
+						return n;
+					}
+					
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			
+			public int size() {
+				int free = cells.length;
+				for(int i=0;i<blocked.length;i++) free -= Long.bitCount(blocked[i]);
+				return free + added.size();
+			}
+		};
+	}
+	
+	private int nextFree(int index) {
+		while(index < cells.length && isBlocked(index)) index++;
+		return index;
+	}
+	
+	/**
+	 * Change the size of each grid square. NOTE: When grid space value is changed, this class does not regenerate 
+	 * the navigation mesh until regenerate() is explicitly called.
+	 * @param gridSpace The unit size of each grid square.
+	 */
+	public void setGridSpacing(float gridSpace) {
+		this.gridspace = gridSpace;
+	}
+	
+	/**
+	 * Changes the safety zone between all nodes/connections and map geometry. This leaves a margin of error between
+	 * potential object collisions and the robot. NOTE: When clearance value is changed, 
+	 * this class does not regenerate the navigation mesh until regenerate() is explicitly called.	
+	 * @param clearance The safety clearance between nodes/connections and map geometry. 
+	 */
+	public void setClearance(float clearance) {
+		this.clearance = clearance;
+	}
+	
+	/**
+	 * Feeds this class a new map. NOTE: When Map is changed, this class does not regenerate the navigation mesh 
+	 * until regenerate() is explicitly called. 
+	 * @param map The new map data.
+	 */
+	public void setMap(LineMap map) {
+		this.map = map;
+	}
+	
+	/**
+	 * Rebuild the grid from the map. Obstacles and blocked cells that were added since the grid was built, and
+	 * all node objects and added nodes, are discarded.
+	 */
+	public void regenerate() {
+		// First node is "clearance" from the corner of the map, as in FourWayGridMesh
+		Rectangle bounds = map.getBoundingRect();
+		x0 = bounds.x + clearance;
+		y0 = bounds.y + clearance;
+		cols = Math.max(0, (int) Math.ceil((bounds.width - 2 * clearance) / gridspace));
+		rows = Math.max(0, (int) Math.ceil((bounds.height - 2 * clearance) / gridspace));
+		blocked = new long[(cols * rows + 63) >> 6];
+		cells = new Cell[cols * rows];
+		obstacles.clear();
+		added.clear();
+		
+		ArrayList <Listener> l = listeners;
+		listeners = new ArrayList <Listener> ();
+		Line [] lines = map.getLines();
+		for(int i=0;i<lines.length;i++) block(lines[i]);
+		listeners = l;
+		for(int i=0;i<listeners.size();i++) listeners.get(i).regenerated();
+	}
+	
+	/**
+	 * Add an obstacle to the mesh. The cells near the line are blocked and connections to nodes added
+	 * with addNode() will keep clear of it.
+	 * @param line the obstacle
+	 */
+	public void addObstacle(Line line) {
+		if(blocked == null) regenerate();
+		obstacles.add(line);
+		block(line);
+	}
+	
+	/**
+	 * Block or free the grid cell nearest to a point.
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @param blocked true to block the cell, false to free it
+	 * @return false if the point is not in the grid
+	 */
+	public boolean setBlocked(float x, float y, boolean blocked) {
+		if(this.blocked == null) regenerate();
+		int index = indexOf(x, y);
+		if(index < 0) return false;
+		setBlocked(index, blocked);
+		return true;
+	}
+	
+	/**
+	 * Check whether the grid cell nearest to a point is blocked.
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @return true if the cell is blocked or the point is not in the grid
+	 */
+	public boolean isBlocked(float x, float y) {
+		if(blocked == null) regenerate();
+		int index = indexOf(x, y);
+		return index < 0 || isBlocked(index);
+	}
+	
+	/**
+	 * Returns the grid node nearest to a point.
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @return the node, or null if the point is not in the grid or its cell is blocked
+	 */
+	public Node getNode(float x, float y) {
+		if(blocked == null) regenerate();
+		int index = indexOf(x, y);
+		return (index < 0 || isBlocked(index) ? null : cell(index));
+	}
+	
+	/**
+	 * Connect two nodes if the connection keeps clear of the map and obstacles. Neighboring grid nodes are
+	 * always connected while both are free.
+	 */
+	public boolean connect(Node node1, Node node2) {
+		if(blocked == null) regenerate();
+		if(!map.getBoundingRect().contains(node1.x, node1.y)) return false;
+		if(!map.getBoundingRect().contains(node2.x, node2.y)) return false;
+		if(!isClear(node1.x, node1.y, node2.x, node2.y)) return false;
+		node1.addNeighbor(node2);
+		node2.addNeighbor(node1);
+		return true;
+	}
+	
+	/**
+	 * Disconnect two nodes that were connected by connect() or addNode(). Neighboring grid nodes can only be
+	 * disconnected by blocking one of them.
+	 */
+	public boolean disconnect(Node node1, Node node2) {
+		boolean removed = node1.removeNeighbor(node2);
+		node2.removeNeighbor(node1);
+		return removed;
+	}
+	
+	/**
+	 * Adds a node to this set and connects it with the nearest free grid nodes around it. If it is unable to find any
+	 * neighbors it will return 0. This might occur because the node is outside of the bounded area of the map or
+	 * too close to the map geometry.
+	 * @param node The unconnected node to add to this mesh. Will be connected with others in the set.
+	 * @param neighbors The maximum number of neighbors to attempt to connect with, at most nine.
+	 * @return the number of neighboring nodes it was able to connect with
+	 */
+	public int addNode(Node node, int neighbors) {
+		if(blocked == null) regenerate();
+		
+		// The nine grid nodes around the nearest one, nearest first
+		int c = Math.round((node.x - x0) / gridspace);
+		int r = Math.round((node.y - y0) / gridspace);
+		int [] near = new int[9];
+		float [] dist = new float[9];
+		int count = 0;
+		for(int dr=-1;dr<=1;dr++) {
+			for(int dc=-1;dc<=1;dc++) {
+				int c2 = c + dc, r2 = r + dr;
+				if(c2 < 0 || c2 >= cols || r2 < 0 || r2 >= rows || isBlocked(r2 * cols + c2)) continue;
+				float d = (float) Math.hypot(x0 + c2 * gridspace - node.x, y0 + r2 * gridspace - node.y);
+				int i = count++;
+				for(;i > 0 && dist[i-1] > d;i--) {
+					near[i] = near[i-1];
+					dist[i] = dist[i-1];
+				}
+				near[i] = r2 * cols + c2;
+				dist[i] = d;
+			}
+		}
+		
+		int total = 0;
+		for(int i=0;i<count && total < neighbors;i++) {
+			if(connect(node, cell(near[i]))) total++;
+		}
+		added.add(node);
+		return total;
+	}
+	
+	/**
+	 * Removes a node added with addNode() and disconnects it from its neighbors. If the node is a grid node
+	 * its cell is blocked instead.
+	 */
+	public boolean removeNode(Node node) {
+		boolean cell = (node instanceof Cell && ((Cell) node).mesh() == this);
+		if(cell) setBlocked(((Cell) node).index, true);
+		ArrayList <Node> arr = new ArrayList <Node> (node.getNeighbors());
+		for(int i=0;i<arr.size();i++) disconnect(node, arr.get(i));
+		return added.remove(node) || cell;
+	}
+	
+	/**
+	 * Add the jump points that follow a grid node in a Jump Point Search to a list, followed by any nodes
+	 * connected to the grid node by connect() or addNode(). A search moving straight or diagonally from its
+	 * predecessor only needs to look ahead and to the sides that the move has just passed, and can skip over
+	 * every node until one where the path may have to turn.
+	 * @param cell the grid node
+	 * @param parent the predecessor of the grid node, or null
+	 * @param goal the goal of the search
+	 * @param points the list to add to
+	 */
+	void jumpPoints(Cell cell, Node parent, Node goal, ArrayList <Node> points) {
+		int c = cell.index % cols, r = cell.index / cols;
+		int goalIndex = (goal instanceof Cell && ((Cell) goal).mesh() == this ? ((Cell) goal).index : -1);
+		if(parent instanceof Cell && ((Cell) parent).mesh() == this) {
+			int p = ((Cell) parent).index;
+			int dx = Integer.signum(c - p % cols), dy = Integer.signum(r - p / cols);
+			if(dx != 0 && dy != 0) {
+				boolean side1 = isFree(c, r + dy), side2 = isFree(c + dx, r);
+				if(side1) jump(c, r, 0, dy, goalIndex, points);
+				if(side2) jump(c, r, dx, 0, goalIndex, points);
+				if(side1 && side2) jump(c, r, dx, dy, goalIndex, points);
+			} else if(dx != 0) {
+				boolean up = isFree(c, r + 1), down = isFree(c, r - 1);
+				if(isFree(c + dx, r)) {
+					jump(c, r, dx, 0, goalIndex, points);
+					if(up) jump(c, r, dx, 1, goalIndex, points);
+					if(down) jump(c, r, dx, -1, goalIndex, points);
+				}
+				if(up) jump(c, r, 0, 1, goalIndex, points);
+				if(down) jump(c, r, 0, -1, goalIndex, points);
+			} else {
+				boolean right = isFree(c + 1, r), left = isFree(c - 1, r);
+				if(isFree(c, r + dy)) {
+					jump(c, r, 0, dy, goalIndex, points);
+					if(right) jump(c, r, 1, dy, goalIndex, points);
+					if(left) jump(c, r, -1, dy, goalIndex, points);
+				}
+				if(right) jump(c, r, 1, 0, goalIndex, points);
+				if(left) jump(c, r, -1, 0, goalIndex, points);
+			}
+		} else {
+			// No direction yet, so look every way
+			for(int dy=-1;dy<=1;dy++) {
+				for(int dx=-1;dx<=1;dx++) {
+					if((dx == 0 && dy == 0) || !isFree(c + dx, r + dy)) continue;
+					if(dx != 0 && dy != 0 && (!isFree(c + dx, r) || !isFree(c, r + dy))) continue;
+					jump(c, r, dx, dy, goalIndex, points);
+				}
+			}
+		}
+		points.addAll(cell.links());
+	}
+	
+	/**
+	 * Move from a grid cell in one direction until a jump point is found, and add it to a list.
+	 */
+	private void jump(int c, int r, int dx, int dy, int goalIndex, ArrayList <Node> points) {
+		int index = jump(c + dx, r + dy, dx, dy, goalIndex);
+		if(index >= 0) points.add(cell(index));
+	}
+	
+	/**
+	 * Find the first jump point from a grid cell in one direction.
+	 * @return the index of the jump point or -1 if there is none
+	 */
+	private int jump(int c, int r, int dx, int dy, int goalIndex) {
+		for(;;) {
+			if(!isFree(c, r)) return -1;
+			int index = r * cols + c;
+			// Stop at the goal, and at nodes that are connected to something other than the grid
+			if(index == goalIndex || (cells[index] != null && !cells[index].links().isEmpty())) return index;
+			if(dx != 0 && dy != 0) {
+				if(jump(c + dx, r, dx, 0, goalIndex) >= 0 || jump(c, r + dy, 0, dy, goalIndex) >= 0) return index;
+			} else if(dx != 0) {
+				// A neighbor beside the move that could not be reached from the previous cell forces a turn
+				if((isFree(c, r - 1) && !isFree(c - dx, r - 1)) || (isFree(c, r + 1) && !isFree(c - dx, r + 1))) return index;
+			} else {
+				if((isFree(c - 1, r) && !isFree(c - 1, r - dy)) || (isFree(c + 1, r) && !isFree(c + 1, r - dy))) return index;
+			}
+			if(!isFree(c + dx, r) || !isFree(c, r + dy)) return -1;
+			c += dx;
+			r += dy;
+		}
+	}
+	
+	/**
+	 * Check whether a straight line between two points only passes through free grid cells. Each free cell
+	 * is far enough from the map lines that such a line cannot cross one, although it may pass closer than
+	 * the clearance.
+	 */
+	boolean lineOfSight(float x1, float y1, float x2, float y2) {
+		// Cell (c, r) covers grid coordinates c to c + 1
+		float gx = (x1 - x0) / gridspace + 0.5f, gy = (y1 - y0) / gridspace + 0.5f;
+		float dx = (x2 - x1) / gridspace, dy = (y2 - y1) / gridspace;
+		int c = (int) Math.floor(gx), r = (int) Math.floor(gy);
+		int steps = Math.abs((int) Math.floor(gx + dx) - c) + Math.abs((int) Math.floor(gy + dy) - r);
+		int stepC = (dx > 0 ? 1 : -1), stepR = (dy > 0 ? 1 : -1);
+		float tDeltaC = (dx != 0 ? Math.abs(1 / dx) : Float.MAX_VALUE);
+		float tDeltaR = (dy != 0 ? Math.abs(1 / dy) : Float.MAX_VALUE);
+		float tMaxC = (dx != 0 ? ((dx > 0 ? c + 1 : c) - gx) / dx : Float.MAX_VALUE);
+		float tMaxR = (dy != 0 ? ((dy > 0 ? r + 1 : r) - gy) / dy : Float.MAX_VALUE);
+		
+		if(!isFree(c, r)) return false;
+		while(steps > 0) {
+			if(tMaxC < tMaxR) {
+				tMaxC += tDeltaC;
+				c += stepC;
+				steps--;
+			} else if(tMaxR < tMaxC) {
+				tMaxR += tDeltaR;
+				r += stepR;
+				steps--;
+			} else {
+				// Passing through a corner, both cells beside it must be free
+				if(!isFree(c + stepC, r) || !isFree(c, r + stepR)) return false;
+				tMaxC += tDeltaC;
+				tMaxR += tDeltaR;
+				c += stepC;
+				r += stepR;
+				steps -= 2;
+			}
+			if(!isFree(c, r)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Block all cells that are too close to a line.
+	 */
+	private void block(Line line) {
+		float radius = Math.max(clearance, MIN_RADIUS * gridspace);
+		int c1 = Math.max(0, (int) Math.floor((Math.min(line.x1, line.x2) - radius - x0) / gridspace));
+		int c2 = Math.min(cols - 1, (int) Math.ceil((Math.max(line.x1, line.x2) + radius - x0) / gridspace));
+		int r1 = Math.max(0, (int) Math.floor((Math.min(line.y1, line.y2) - radius - y0) / gridspace));
+		int r2 = Math.min(rows - 1, (int) Math.ceil((Math.max(line.y1, line.y2) + radius - y0) / gridspace));
+		double limit = (double) radius * radius;
+		for(int r=r1;r<=r2;r++) {
+			for(int c=c1;c<=c2;c++) {
+				if(line.ptSegDistSq(x0 + c * gridspace, y0 + r * gridspace) < limit) setBlocked(r * cols + c, true);
+			}
+		}
+	}
+	
+	/**
+	 * Check whether a connection keeps at least the clearance away from the map and the obstacles.
+	 */
+	private boolean isClear(float x1, float y1, float x2, float y2) {
+		Line connection = new Line(x1, y1, x2, y2);
+		Line [] lines = map.getLines();
+		for(int i=0;i<lines.length;i++) {
+			if(lines[i].segDist(connection) < clearance) return false;
+		}
+		for(int i=0;i<obstacles.size();i++) {
+			if(obstacles.get(i).segDist(connection) < clearance) return false;
+		}
+		return true;
+	}
+	
+	private int indexOf(float x, float y) {
+		int c = Math.round((x - x0) / gridspace);
+		int r = Math.round((y - y0) / gridspace);
+		return (c < 0 || c >= cols || r < 0 || r >= rows ? -1 : r * cols + c);
+	}
+	
+	private boolean isBlocked(int index) {
+		return (blocked[index >> 6] & (1L << index)) != 0;
+	}
+	
+	boolean isFree(int c, int r) {
+		return c >= 0 && c < cols && r >= 0 && r < rows && !isBlocked(r * cols + c);
+	}
+	
+	private void setBlocked(int index, boolean b) {
+		if(isBlocked(index) == b) return;
+		if(b) blocked[index >> 6] |= (1L << index);
+		else blocked[index >> 6] &= ~(1L << index);
+		if(listeners.isEmpty()) return;
+		
+		// The cell and any existing nodes around it have new connections
+		int c = index % cols, r = index / cols;
+		for(int dr=-1;dr<=1;dr++) {
+			for(int dc=-1;dc<=1;dc++) {
+				if(c + dc < 0 || c + dc >= cols || r + dr < 0 || r + dr >= rows) continue;
+				int i = (r + dr) * cols + c + dc;
+				if(i != index && cells[i] == null) continue;
+				for(int j=0;j<listeners.size();j++) listeners.get(j).nodeChanged(cell(i));
+			}
+		}
+	}
+	
+	void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	private Cell cell(int index) {
+		Cell n = cells[index];
+		if(n == null) n = cells[index] = new Cell(index);
+		return n;
+	}
+	
+	/**
+	 * A grid node. Its grid neighbors are worked out from the bit set each time they are needed, only
+	 * connections made by connect() and addNode() are stored.
+	 */
+	class Cell extends Node {
+		final int index;
+		
+		Cell(int index) {
+			super(x0 + (index % cols) * gridspace, y0 + (index / cols) * gridspace);
+			this.index = index;
+		}
+		
+		EightWayGridMesh mesh() {
+			return EightWayGridMesh.this;
+		}
+		
+		/**
+		 * The nodes connected to this node by connect() or addNode()
+		 */
+		Collection <Node> links() {
+			return super.getNeighbors();
+		}
+		
+		public Collection <Node> getNeighbors() {
+			Collection <Node> extra = super.getNeighbors();
+			ArrayList <Node> links = new ArrayList <Node> (8 + extra.size());
+			int c = index % cols, r = index / cols;
+			if(!isBlocked(index)) {
+				for(int dr=-1;dr<=1;dr++) {
+					for(int dc=-1;dc<=1;dc++) {
+						if((dc == 0 && dr == 0) || !isFree(c + dc, r + dr)) continue;
+						// Don't cut corners
+						if(dc != 0 && dr != 0 && (!isFree(c + dc, r) || !isFree(c, r + dr))) continue;
+						links.add(cell((r + dr) * cols + c + dc));
+					}
+				}
+			}
+			links.addAll(extra);
+			return links;
+		}
+		
+		public int neighbors() {
+			return getNeighbors().size();
+		}
+	}
+}
@@ -46,6 +46,13 @@ public class Node  {
 	 */
 	private Node cameFrom = null;
 	
+	/**
+	 * The search that last visited this node, and the position of this node in the open set of that
+	 * search. Used by NodeHeap so that search state never has to be cleared from the nodes.
+	 */
+	int search = 0;
+	int heapIndex = NodeHeap.UNSEEN;
+	
 	/**
 	 * List of neighbors to this node.
 	 */
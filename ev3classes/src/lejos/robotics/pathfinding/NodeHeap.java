@@ -0,0 +1,134 @@
+package lejos.robotics.pathfinding;
+
+/**
+ * The open set of a node search, kept as a binary heap ordered by F score so
+ * the best node can be found without scanning the whole set. Each node stores
+ * its position in the heap, so a node whose score improves can be moved up
+ * without searching for it (decrease-key).<p>
+ * Each call to {@link #begin()} starts a new search and stamps the nodes it
+ * touches with the number of that search. A node stamped by an earlier search
+ * is treated as not yet visited, so the state left in the nodes never needs to
+ * be cleared. A heap can be reused for any number of searches, but only by one
+ * search at a time.
+ */
+class NodeHeap {
+	// Values of Node.heapIndex for nodes that are not in the heap
+	static final int UNSEEN = -1;
+	static final int CLOSED = -2;
+	
+	// The number of the latest search started by any heap
+	private static int searches = 0;
+	
+	private Node[] heap = new Node[64];
+	private int size;
+	private int search;
+	
+	/**
+	 * Start a new search with an empty open set.
+	 */
+	void begin() {
+		for(int i=0;i<size;i++) heap[i] = null;
+		size = 0;
+		synchronized(NodeHeap.class) {
+			search = ++searches;
+		}
+	}
+	
+	/**
+	 * Make sure that a node has been stamped by the current search. A node not
+	 * seen before in this search gets an infinite G score and no predecessor.
+	 * @param node the node
+	 * @return true if the node was already stamped by this search
+	 */
+	boolean visit(Node node) {
+		if (node.search == search) return true;
+		node.search = search;
+		node.heapIndex = UNSEEN;
+		node.setG_Score(Float.POSITIVE_INFINITY);
+		node.setPredecessor(null);
+		return false;
+	}
+	
+	/**
+	 * Check whether a node has been removed from the open set by this search.
+	 * @param node the node
+	 * @return true if the node is closed
+	 */
+	boolean isClosed(Node node) {
+		return node.search == search && node.heapIndex == CLOSED;
+	}
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Add a node to the open set, or move it to its new place if its F score
+	 * has been reduced. The node must have been visited by this search and
+	 * must not be closed.
+	 * @param node the node
+	 */
+	void update(Node node) {
+		int i = node.heapIndex;
+		if (i < 0) {
+			if (size == heap.length) {
+				Node[] larger = new Node[size * 2];
+				System.arraycopy(heap, 0, larger, 0, size);
+				heap = larger;
+			}
+			i = size++;
+		}
+		siftUp(node, i);
+	}
+	
+	/**
+	 * Remove the node with the lowest F score from the open set and mark it closed.
+	 * @return the node
+	 */
+	Node poll() {
+		Node best = heap[0];
+		Node last = heap[--size];
+		heap[size] = null;
+		if (size > 0) siftDown(last, 0);
+		best.heapIndex = CLOSED;
+		return best;
+	}
+	
+	private void siftUp(Node node, int i) {
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			Node p = heap[parent];
+			if (!less(node, p)) break;
+			heap[i] = p;
+			p.heapIndex = i;
+			i = parent;
+		}
+		heap[i] = node;
+		node.heapIndex = i;
+	}
+	
+	private void siftDown(Node node, int i) {
+		int half = size >> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			Node c = heap[child];
+			int right = child + 1;
+			if (right < size && less(heap[right], c)) c = heap[child = right];
+			if (!less(c, node)) break;
+			heap[i] = c;
+			c.heapIndex = i;
+			i = child;
+		}
+		heap[i] = node;
+		node.heapIndex = i;
+	}
+	
+	/**
+	 * Order nodes by F score. When the scores are equal the node furthest from
+	 * the start is taken first, as it is likely to be nearer the goal.
+	 */
+	private static boolean less(Node a, Node b) {
+		float fa = a.getF_Score(), fb = b.getF_Score();
+		return fa < fb || (fa == fb && a.getG_Score() > b.getG_Score());
+	}
+}
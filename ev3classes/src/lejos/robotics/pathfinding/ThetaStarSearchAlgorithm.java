@@ -0,0 +1,97 @@
+package lejos.robotics.pathfinding;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Point2D;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * This is an implementation of Theta*, a variant of A* that finds "any-angle" paths. When a node is reached, the
+ * search links it straight to the predecessor of the node it was reached from, skipping the node in between,
+ * if there is a clear line of sight between them. Paths are not limited to the directions of the mesh
+ * connections, so they are shorter and smoother, with waypoints only at the corners of obstacles.<p>
+ * This is the "lazy" form of Theta*. The line of sight is assumed when a node is reached and only checked when
+ * the node is taken from the open set, so it is checked once per node instead of once per connection. If there
+ * is no line of sight the node is linked to its best neighbor that has already been expanded instead.<p>
+ * Lines of sight between the nodes of an {@link EightWayGridMesh} are checked on the grid itself. For other meshes,
+ * such as {@link FourWayGridMesh}, supply the map and clearance so that lines of sight can be checked against the
+ * map geometry.
+ */
+public class ThetaStarSearchAlgorithm extends AstarSearchAlgorithm {
+	
+	private static final String STRING_NAME = "Theta*";
+	
+	private LineMap map = null;
+	private float clearance;
+	
+	/**
+	 * Instantiates a Theta* search for the nodes of an EightWayGridMesh. With any other nodes it behaves as A*.
+	 */
+	public ThetaStarSearchAlgorithm() {
+	}
+	
+	/**
+	 * Instantiates a Theta* search that checks lines of sight against the geometry of a map.
+	 * @param map The map containing geometry.
+	 * @param clearance The safety zone between all lines of sight and the map geometry.
+	 */
+	public ThetaStarSearchAlgorithm(LineMap map, float clearance) {
+		this.map = map;
+		this.clearance = clearance;
+	}
+	
+	void closed(Node x) {
+		Node p = x.getPredecessor();
+		if(p == null || lineOfSight(p, x)) return;
+		// Link to the best expanded neighbor instead
+		x.setPredecessor(null);
+		x.setG_Score(Float.POSITIVE_INFINITY);
+		for(Node n : x.getNeighbors()) {
+			if(!isClosed(n) || n == x) continue;
+			float g = n.getG_Score() + n.calculateG(x);
+			if(g < x.getG_Score()) {
+				x.setPredecessor(n);
+				x.setG_Score(g);
+			}
+		}
+	}
+	
+	void expand(Node x, Node y, Node goal) {
+		Node p = x.getPredecessor();
+		if(p != null) {
+			relax(p, y, distance(p, y), goal);
+		} else {
+			super.expand(x, y, goal);
+		}
+	}
+	
+	/**
+	 * Straight line distance, as the distance to the goal along any-angle paths can be less
+	 * than the estimate made by some node types.
+	 */
+	float estimate(Node y, Node goal) {
+		return distance(y, goal);
+	}
+	
+	private static float distance(Node a, Node b) {
+		return (float) Point2D.distance(a.x, a.y, b.x, b.y);
+	}
+	
+	private boolean lineOfSight(Node a, Node b) {
+		if(map != null) {
+			Line connection = new Line(a.x, a.y, b.x, b.y);
+			Line [] lines = map.getLines();
+			for(int i=0;i<lines.length;i++) {
+				if(lines[i].segDist(connection) < clearance) return false;
+			}
+			return true;
+		}
+		EightWayGridMesh mesh = null;
+		if(a instanceof EightWayGridMesh.Cell) mesh = ((EightWayGridMesh.Cell) a).mesh();
+		else if(b instanceof EightWayGridMesh.Cell) mesh = ((EightWayGridMesh.Cell) b).mesh();
+		return mesh != null && mesh.lineOfSight(a.x, a.y, b.x, b.y);
+	}
+	
+	public String toString() {
+		return STRING_NAME;
+	}
+}
@@ -20,6 +20,13 @@ package lejos.robotics.subsumption;
  * <br>    When the behavior should take control,  the <code> takeControl() </code> should continue to return <b> true </b>
  * <br>    until its action starts. 
  * <br> After your code instantiates the Arbitrator,  it should call <code>go() </code>to start it running.
+ * <br>
+ * <br>  By default the Monitor thread polls <code>takeControl()</code> continuously, which uses all of the
+ * <br>  available CPU time. If a polling period is set the Monitor thread sleeps between polls, and
+ * <br>  behaviors (or sensor listeners) can call <code>wakeUp()</code> to have the Arbitrator check
+ * <br>  <code>takeControl()</code> immediately when something changes. The time taken from a behavior
+ * <br>  being detected (or <code>wakeUp()</code> being called) to its <code>action()</code> starting is
+ * <br>  recorded so that the polling period can be tuned.
  * <br>    
  * @see Behavior
  * @author Roger Glassey
@@ -34,6 +41,17 @@ public class Arbitrator
   private int _active = NONE; //  active behavior; set by monitor, used by start();
   private boolean _returnWhenInactive;
   public boolean keepRunning = true;
+  // period in ms between polls of takeControl(), 0 means poll continuously
+  private volatile int _pollPeriod;
+  // set by wakeUp() to force the monitor to poll again
+  private boolean _signalled;
+  // number of polls completed by the monitor, used to wait for a fresh poll
+  private int _pollCount;
+  // arbitration latency tracking, times are from System.nanoTime()
+  private long _signalTime;
+  private volatile long _detectTime;
+  private volatile long _lastLatency;
+  private volatile long _maxLatency;
   /**
    * Monitor is an inner class.  It polls the behavior array to find the behavior of hightst
    * priority.  If higher than the active behavior, it calls active.suppress()
@@ -53,6 +71,20 @@ public class Arbitrator
    */
   public Arbitrator(Behavior[] behaviorList, boolean returnWhenInactive)
   {
+    this(behaviorList, returnWhenInactive, 0);
+  }
+
+  /**
+   * Allocates an Arbitrator object and initializes it with an array of
+   * Behavior objects, polling the behaviors at the specified rate.
+   * @param behaviorList an array of Behavior objects.
+   * @param returnWhenInactive if <B>true</B>, the <B>go()</B> method returns when no Behavior is active.
+   * @param pollPeriod time in ms between polls of <code>takeControl()</code>, 0 to poll continuously
+   * @see #setPollPeriod(int)
+   */
+  public Arbitrator(Behavior[] behaviorList, boolean returnWhenInactive, int pollPeriod)
+  {
+    setPollPeriod(pollPeriod);
     _behavior = behaviorList;
     _returnWhenInactive = returnWhenInactive;
     monitor = new Monitor();
@@ -82,7 +114,7 @@ public class Arbitrator
     monitor.start();
     while (_highestPriority == NONE)
     {
-      Thread.yield();//wait for some behavior to take control                    
+      waitForBehavior();//wait for some behavior to take control                    
     }
     while (true)
     {
@@ -100,16 +132,155 @@ public class Arbitrator
       }// monitor released before action is called
       if (_active != NONE)  //_highestPrioirty could be NONE
       {
+        recordLatency();
         _behavior[_active].action();
         _active = NONE;  // no active behavior at the moment
+        if (_pollPeriod > 0)
+          waitForPoll(); // lower priority behaviors need to be checked again
       }
-      Thread.yield();
+      waitForBehavior();
     }
   }
 
   public void stop() {
 	  keepRunning = false;
   }
+
+  /**
+   * Set the time between polls of the <code>takeControl()</code> methods. A period of 0
+   * (the default) polls continuously, giving the lowest latency but using all of
+   * the available CPU time. With a non zero period the Monitor thread sleeps between
+   * polls, use <code>wakeUp()</code> to trigger an immediate poll.
+   * @param period time between polls in ms
+   */
+  public void setPollPeriod(int period)
+  {
+    if (period < 0)
+      throw new IllegalArgumentException("Invalid poll period");
+    _pollPeriod = period;
+  }
+
+  /**
+   * Return the time between polls of the <code>takeControl()</code> methods.
+   * @return poll period in ms
+   */
+  public int getPollPeriod()
+  {
+    return _pollPeriod;
+  }
+
+  /**
+   * Signal that the conditions tested by one or more <code>takeControl()</code> methods
+   * may have changed. The Monitor thread will poll the behaviors immediately rather than
+   * waiting for the poll period to expire. This method can be called from any thread,
+   * for example from a sensor listener when a threshold is crossed.
+   */
+  public void wakeUp()
+  {
+    synchronized (monitor)
+    {
+      if (!_signalled)
+        _signalTime = System.nanoTime();
+      _signalled = true;
+      monitor.notifyAll();
+    }
+  }
+
+  /**
+   * Return the arbitration latency of the most recent behavior to start. This is
+   * the time from the behavior being detected as wanting control (or from the
+   * call to <code>wakeUp()</code> that triggered the detection) to the
+   * <code>action()</code> method being called.
+   * @return latency in ns
+   */
+  public long getLatency()
+  {
+    return _lastLatency;
+  }
+
+  /**
+   * Return the largest arbitration latency seen since the arbitrator started or
+   * the last call to <code>resetLatency()</code>.
+   * @return latency in ns
+   */
+  public long getMaxLatency()
+  {
+    return _maxLatency;
+  }
+
+  /**
+   * Reset the arbitration latency values.
+   */
+  public void resetLatency()
+  {
+    _lastLatency = 0;
+    _maxLatency = 0;
+  }
+
+  /**
+   * Wait for the Monitor thread to find a behavior that wants control.
+   */
+  private void waitForBehavior()
+  {
+    if (_pollPeriod <= 0)
+    {
+      Thread.yield();
+      return;
+    }
+    synchronized (monitor)
+    {
+      if (_highestPriority == NONE)
+      {
+        try
+        {
+          monitor.wait(_pollPeriod);
+        } catch (InterruptedException e)
+        {
+          // just poll again
+        }
+      }
+    }
+  }
+
+  /**
+   * Called by the main thread when an action exits. Waits for the Monitor thread to
+   * poll the behaviors again, so that the behavior that has just run is only
+   * restarted if its <code>takeControl()</code> still returns true.
+   */
+  private void waitForPoll()
+  {
+    synchronized (monitor)
+    {
+      _highestPriority = NONE;
+      int poll = _pollCount;
+      wakeUp();
+      while (_pollCount == poll && keepRunning && monitor.isAlive())
+      {
+        try
+        {
+          monitor.wait(_pollPeriod);
+        } catch (InterruptedException e)
+        {
+          // just check again
+        }
+      }
+    }
+  }
+
+  /**
+   * Called by the main thread just before a behavior action is started.
+   */
+  private void recordLatency()
+  {
+    long start = _detectTime;
+    if (start == 0)
+      return;
+    _detectTime = 0;
+    long latency = System.nanoTime() - start;
+    _lastLatency = latency;
+    if (latency > _maxLatency)
+      _maxLatency = latency;
+  }
   
   /**
    * Finds the highest priority behavior that returns <B>true </B> to <code> takeControl()</code>;
@@ -128,6 +299,8 @@ public class Arbitrator
         //FIND HIGHEST PRIORITY BEHAVIOR THAT WANTS CONTROL
         synchronized (this)
         {
+          long pollTime = (_signalled ? _signalTime : System.nanoTime());
+          _signalled = false;
            _highestPriority = NONE; // -1
           for (int i = maxPriority; i > _active; i--) // only behaviors with higher priority are interesting
           {
@@ -142,8 +315,23 @@ public class Arbitrator
           {
             _behavior[active].suppress();
           }
+          _pollCount++;
+          if (_highestPriority != NONE && _detectTime == 0)
+            _detectTime = pollTime;
+          notifyAll(); // let the main thread know the poll is complete
+          if (_pollPeriod > 0 && !_signalled)
+          {
+            try
+            {
+              wait(_pollPeriod);
+            } catch (InterruptedException e)
+            {
+              // just poll again
+            }
+          }
         }// end synchronize block - main thread can run now
-        Thread.yield();
+        if (_pollPeriod <= 0)
+          Thread.yield();
       }
     }
   }
@@ -0,0 +1,85 @@
+package org.lejos.ev3.pcsample.mapping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.pathfinding.AstarSearchAlgorithm;
+import lejos.robotics.pathfinding.EightWayGridMesh;
+import lejos.robotics.pathfinding.FourWayGridMesh;
+import lejos.robotics.pathfinding.JumpPointSearchAlgorithm;
+import lejos.robotics.pathfinding.NavigationMesh;
+import lejos.robotics.pathfinding.Node;
+import lejos.robotics.pathfinding.Path;
+import lejos.robotics.pathfinding.SearchAlgorithm;
+import lejos.robotics.pathfinding.ThetaStarSearchAlgorithm;
+
+/**
+ * Time search algorithms from one corner to the opposite corner of grid
+ * meshes of increasing size. The map has a set of walls, each with a gap at
+ * alternate ends, so the path has to zig zag across the whole map. A* is
+ * timed on a FourWayGridMesh, then A*, Jump Point Search and Theta* on an
+ * EightWayGridMesh.
+ */
+public class AstarBenchmark {
+	private static final float GRID = 10;
+	private static final int WALLS = 8;
+	private static final int REPEAT = 5;
+	
+	public static void main(String[] args) {
+		int max = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+		SearchAlgorithm[] algs = {new AstarSearchAlgorithm(), new JumpPointSearchAlgorithm(), new ThetaStarSearchAlgorithm()};
+		for(int n = 25; n <= max; n *= 2) {
+			LineMap map = map(n);
+			time(algs[0], new FourWayGridMesh(map, GRID, GRID / 2), n);
+			NavigationMesh mesh = new EightWayGridMesh(map, GRID, GRID / 2);
+			for(int i=0;i<algs.length;i++) time(algs[i], mesh, n);
+		}
+	}
+	
+	/**
+	 * Create a square map with n grid squares along each side
+	 */
+	private static LineMap map(int n) {
+		float size = n * GRID;
+		ArrayList<Line> lines = new ArrayList<Line>();
+		lines.add(new Line(0, 0, size, 0));
+		lines.add(new Line(size, 0, size, size));
+		lines.add(new Line(size, size, 0, size));
+		lines.add(new Line(0, size, 0, 0));
+		for(int i=1;i<=WALLS;i++) {
+			float x = i * size / (WALLS + 1) + GRID / 2;
+			if (i % 2 == 1) lines.add(new Line(x, 0, x, size - 3 * GRID));
+			else lines.add(new Line(x, 3 * GRID, x, size));
+		}
+		return new LineMap(lines.toArray(new Line[lines.size()]), new Rectangle(0, 0, size, size));
+	}
+	
+	private static void time(SearchAlgorithm alg, NavigationMesh mesh, int n) {
+		mesh.regenerate();
+		Collection<Node> nodes = mesh.getMesh();
+		Node start = null, goal = null;
+		for(Node node : nodes) {
+			if (start == null) start = node;
+			goal = node;
+		}
+		
+		Path path = alg.findPath(start, goal);
+		long best = Long.MAX_VALUE;
+		for(int i=0;i<REPEAT;i++) {
+			long t = System.nanoTime();
+			alg.findPath(start, goal);
+			best = Math.min(best, System.nanoTime() - t);
+		}
+		System.out.println(alg + " on " + mesh.getClass().getSimpleName() + " " + n + "x" + n + " grid: " + (best / 1000) + "us, " +
+				(path == null ? "no path" : path.size() + " waypoints, length " + Math.round(length(path))));
+	}
+	
+	private static double length(Path path) {
+		double length = 0;
+		for(int i=1;i<path.size();i++) length += path.get(i).distance(path.get(i - 1));
+		return length;
+	}
+}
@@ -0,0 +1,128 @@
+package org.lejos.ev3.pcsample.mapping;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Point;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.mapping.SVGMapLoader;
+import lejos.robotics.navigation.Pose;
+
+/**
+ * Compare the time taken by LineMap.range and LineMap.inside with testing
+ * every line of the map. The map is either an SVG file given as the first
+ * argument or a generated floor plan of rooms with doorways.
+ */
+public class LineMapBenchmark {
+	private static final int COUNT = 100000;
+	private static final float ROOM = 100;
+	private static final float DOOR = 30;
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			FileInputStream in = new FileInputStream(args[0]);
+			LineMap map = new SVGMapLoader(in).readLineMap();
+			in.close();
+			time(map);
+		} else {
+			for(int rooms = 4; rooms <= 32; rooms *= 2) time(floorPlan(rooms));
+		}
+	}
+	
+	/**
+	 * Create a square floor plan of rooms, each with a doorway in its lower
+	 * and left walls, and some furniture in each room.
+	 */
+	private static LineMap floorPlan(int rooms) {
+		ArrayList<Line> lines = new ArrayList<Line>();
+		float size = rooms * ROOM;
+		for(int i=0;i<rooms;i++) {
+			for(int j=0;j<rooms;j++) {
+				float x = i * ROOM, y = j * ROOM;
+				float gap = (ROOM - DOOR) / 2;
+				lines.add(new Line(x, y, x + gap, y));
+				lines.add(new Line(x + gap + DOOR, y, x + ROOM, y));
+				lines.add(new Line(x, y, x, y + gap));
+				lines.add(new Line(x, y + gap + DOOR, x, y + ROOM));
+				lines.add(new Line(x + 20, y + 60, x + 50, y + 60));
+				lines.add(new Line(x + 50, y + 60, x + 50, y + 80));
+				lines.add(new Line(x + 50, y + 80, x + 20, y + 80));
+				lines.add(new Line(x + 20, y + 80, x + 20, y + 60));
+			}
+		}
+		lines.add(new Line(size, 0, size, size));
+		lines.add(new Line(0, size, size, size));
+		return new LineMap(lines.toArray(new Line[lines.size()]), new Rectangle(0, 0, size, size));
+	}
+	
+	private static void time(LineMap map) {
+		Line[] lines = map.getLines();
+		Rectangle bounds = map.getBoundingRect();
+		Random random = new Random(1);
+		Pose[] poses = new Pose[COUNT];
+		Point[] points = new Point[COUNT];
+		for(int i=0;i<COUNT;i++) {
+			float x = bounds.x + random.nextFloat() * bounds.width;
+			float y = bounds.y + random.nextFloat() * bounds.height;
+			poses[i] = new Pose(x, y, random.nextFloat() * 360);
+			points[i] = new Point(x, y);
+		}
+		
+		// warm up and check that the results agree
+		int mismatches = 0;
+		for(int i=0;i<COUNT;i++) {
+			if (map.range(poses[i]) != range(lines, poses[i])) mismatches++;
+			if (map.inside(points[i]) != inside(lines, bounds, points[i])) mismatches++;
+		}
+		
+		long start = System.nanoTime();
+		for(int i=0;i<COUNT;i++) range(lines, poses[i]);
+		long rangeAll = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i=0;i<COUNT;i++) map.range(poses[i]);
+		long rangeMap = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i=0;i<COUNT;i++) inside(lines, bounds, points[i]);
+		long insideAll = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i=0;i<COUNT;i++) map.inside(points[i]);
+		long insideMap = System.nanoTime() - start;
+		
+		System.out.println(lines.length + " lines: range " + (rangeAll/COUNT) + "ns -> " + (rangeMap/COUNT) +
+				"ns, inside " + (insideAll/COUNT) + "ns -> " + (insideMap/COUNT) + "ns, " + mismatches + " mismatches");
+	}
+	
+	/**
+	 * The range to the nearest line, found by testing every line
+	 */
+	private static float range(Line[] lines, Pose pose) {
+		Line l = new Line(pose.getX(), pose.getY(), pose.getX() + 254f
+				* (float) Math.cos(Math.toRadians(pose.getHeading())), pose.getY() + 254f
+				* (float) Math.sin(Math.toRadians(pose.getHeading())));
+		float range = -1;
+		for(int i=0;i<lines.length;i++) {
+			Point p = lines[i].intersectsAt(l);
+			if (p == null) continue;
+			float d = new Line(pose.getX(), pose.getY(), p.x, p.y).length();
+			if (range < 0 || d < range) range = d;
+		}
+		return range;
+	}
+	
+	/**
+	 * Whether a point is inside the map, found by testing every line
+	 */
+	private static boolean inside(Line[] lines, Rectangle bounds, Point p) {
+		if (p.x < bounds.x || p.y < bounds.y) return false;
+		if (p.x > bounds.x + bounds.width || p.y > bounds.y + bounds.height) return false;
+		Line l = new Line(p.x, p.y, p.x - bounds.width, p.y);
+		int count = 0;
+		for(int i=0;i<lines.length;i++) {
+			if (lines[i].intersectsAt(l) != null) count++;
+		}
+		return (count % 2 == 1);
+	}
+}
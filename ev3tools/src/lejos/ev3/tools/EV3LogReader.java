@@ -0,0 +1,168 @@
+package lejos.ev3.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import lejos.robotics.filter.LogFilter;
+
+/**
+ * Read the binary sample logs written by {@link LogFilter}. The log is read a block
+ * at a time, the times and values of the samples in the current block can then be
+ * obtained. Run from the command line it converts a log to comma separated values.
+ */
+public class EV3LogReader {
+	private final DataInputStream in;
+	private final int channels;
+	private final int blockSamples;
+	private final String[] names;
+	private final long[] times;
+	private final float[][] values;
+	private int count;
+	private int dropped;
+
+	/**
+	 * Open a log and read its header.
+	 * @param is the stream holding the log
+	 * @throws IOException if the stream is not a log
+	 */
+	public EV3LogReader(InputStream is) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(is));
+		if (in.readInt() != LogFilter.LOG_MAGIC)
+			throw new IOException("Not a sample log");
+		int version = in.readInt();
+		if (version != LogFilter.FORMAT_VERSION)
+			throw new IOException("Unsupported log version " + version);
+		channels = in.readInt();
+		blockSamples = in.readInt();
+		if (channels < 0 || blockSamples <= 0)
+			throw new IOException("Invalid log header");
+		names = new String[channels];
+		for (int i = 0; i < channels; i++)
+			names[i] = in.readUTF();
+		times = new long[blockSamples];
+		values = new float[channels][blockSamples];
+	}
+
+	/**
+	 * Read the next block of samples.
+	 * @return false if there are no more samples
+	 * @throws IOException
+	 */
+	public boolean nextBlock() throws IOException {
+		try {
+			count = in.readInt();
+			if (count <= 0 || count > blockSamples) {
+				// End of the data, the rest of the file was allocated but not written
+				count = 0;
+				return false;
+			}
+			dropped = in.readInt();
+			long base = in.readLong();
+			for (int i = 0; i < blockSamples; i++)
+				times[i] = base + in.readInt()*1000L;
+			for (int c = 0; c < channels; c++)
+				for (int i = 0; i < blockSamples; i++)
+					values[c][i] = in.readFloat();
+			return true;
+		} catch (EOFException e) {
+			// A block that was not completely written is ignored
+			count = 0;
+			return false;
+		}
+	}
+
+	public int getChannelCount() {
+		return channels;
+	}
+
+	public String getChannelName(int channel) {
+		return names[channel];
+	}
+
+	/**
+	 * @return the number of samples in the current block
+	 */
+	public int getSampleCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of samples dropped by the logger before the current block
+	 */
+	public int getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @param sample the index of the sample within the current block
+	 * @return the time of the sample in ns
+	 */
+	public long getTime(int sample) {
+		return times[sample];
+	}
+
+	/**
+	 * @param channel the channel
+	 * @param sample the index of the sample within the current block
+	 * @return the value of the channel
+	 */
+	public float getValue(int channel, int sample) {
+		return values[channel][sample];
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Write the samples of the log as comma separated values, with the time in seconds
+	 * from the first sample. A line starting with # is written where samples were dropped.
+	 * @param out the stream to write to
+	 * @throws IOException
+	 */
+	public void writeCSV(PrintStream out) throws IOException {
+		StringBuilder sb = new StringBuilder("time");
+		for (int c = 0; c < channels; c++)
+			sb.append(',').append(names[c].length() > 0 ? names[c] : "ch" + c);
+		out.println(sb);
+		long start = 0;
+		boolean first = true;
+		while (nextBlock()) {
+			if (first) {
+				start = times[0];
+				first = false;
+			}
+			if (dropped > 0)
+				out.println("# " + dropped + " samples dropped");
+			for (int i = 0; i < count; i++) {
+				sb.setLength(0);
+				sb.append((times[i] - start)/1e9);
+				for (int c = 0; c < channels; c++)
+					sb.append(',').append(values[c][i]);
+				out.println(sb);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: EV3LogReader <log file> [<csv file>]");
+			System.exit(1);
+		}
+		EV3LogReader reader = new EV3LogReader(new FileInputStream(args[0]));
+		PrintStream out = (args.length > 1 ? new PrintStream(args[1]) : System.out);
+		try {
+			reader.writeCSV(out);
+		} finally {
+			reader.close();
+			out.flush();
+			if (out != System.out)
+				out.close();
+		}
+	}
+}
@@ -247,12 +247,9 @@ public class MapPanel extends JPanel {
 		int numParticles = particles.numParticles();
 		g2d.setColor(colors[PARTICLE_COLOR_INDEX]);
 		for (int i = 0; i < numParticles; i++) {
-			MCLParticle part = particles.getParticle(i);
-			if (part != null) {
-				if (i == model.closest) g2d.setColor(colors[CLOSEST_COLOR_INDEX]);
-				else g2d.setColor(colors[PARTICLE_COLOR_INDEX]);
-				paintPose(g2d, new Pose(part.getPose().getX(), part.getPose().getY(), part.getPose().getHeading()));
-			}
+			if (i == model.closest) g2d.setColor(colors[CLOSEST_COLOR_INDEX]);
+			else g2d.setColor(colors[PARTICLE_COLOR_INDEX]);
+			paintPose(g2d, new Pose(particles.getX(i), particles.getY(i), particles.getHeading(i)));
 		}	  
 	}
 	
@@ -410,9 +407,8 @@ public class MapPanel extends JPanel {
 		float x = e.getX()/ parent.pixelsPerUnit + viewStart.x;
 		float y = (getHeight() - e.getY())/ parent.pixelsPerUnit + viewStart.y;
 		int i = particles.findClosest(x,y);
-		MCLParticle part = particles.getParticle(i);
-		Pose p = part.getPose(); 
-		if (Math.abs(p.getX() - x) <= 2f && Math.abs(p.getY() - y) <= 2f) return  "Weight " + part.getWeight();
+		if (i < 0) return null;
+		if (Math.abs(particles.getX(i) - x) <= 2f && Math.abs(particles.getY(i) - y) <= 2f) return  "Weight " + particles.getWeight(i);
 		else return null;
 	}
 	